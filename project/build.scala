@@ -2,6 +2,7 @@ import sbt._
 import Defaults._
 import Keys._
 import sbtassembly.AssemblyPlugin.autoImport._
+import pl.project13.scala.sbt.JmhPlugin
 
 object ApplicationBuild extends Build {
 
@@ -13,6 +14,7 @@ object ApplicationBuild extends Build {
     version := "0.01." + "git rev-parse HEAD".!!.trim,
     resolvers ++= myResolvers,
     scalacOptions := Seq("-deprecation", "-target:jvm-1.7"),
+    javacOptions ++= Seq("-source", "1.8", "-target", "1.8"),
     scalacOptions in Test ++= Seq("-Yrangepos"),
     name := "rest_client",
     libraryDependencies ++= Dependencies.all,
@@ -22,10 +24,23 @@ object ApplicationBuild extends Build {
 
   lazy val client = Project("pushcrew_client", file("pushcrew_client"), settings=pushcrewSettings)
 
+  // Run with: sbt "pushcrew_benchmarks/jmh:run -i 5 -wi 5 -f 1"
+  lazy val benchmarks = Project("pushcrew_benchmarks", file("pushcrew_benchmarks"), settings=pushcrewSettings ++ Seq(
+    name := "pushcrew_benchmarks",
+    libraryDependencies += Dependencies.mockWebServer,
+    publishArtifact := false
+  )).dependsOn(client).enablePlugins(JmhPlugin)
+
+  // In-process fake of the PushCrew API for load and soak tests; uses nothing beyond the JDK, Jackson and slf4j.
+  lazy val simulator = Project("pushcrew_simulator", file("pushcrew_simulator"), settings=pushcrewSettings ++ Seq(
+    name := "pushcrew_simulator"
+  ))
+
   object Dependencies {
 
     val okHttp = "com.squareup.okhttp3" % "okhttp" % "3.0.1"
     val jacksonJson = "com.fasterxml.jackson.core" % "jackson-databind" % "2.7.0"
+    val mockWebServer = "com.squareup.okhttp3" % "mockwebserver" % "3.0.1"
 
     val metrics          = "io.dropwizard.metrics" %  "metrics-core"              % "3.1.0"
     val metricsGraphite  = "io.dropwizard.metrics" %  "metrics-graphite"          % "3.1.0"
@@ -44,7 +59,7 @@ object ApplicationBuild extends Build {
     val logging = Seq(logbackCore, logbackClassic, slf4j)
      */
 
-    val all = testFrameworks ++ logging ++ Seq(okHttp, jacksonJson)
+    val all = testFrameworks ++ logging ++ instrumentation ++ Seq(okHttp, jacksonJson)
   }
 
   val myResolvers = Seq(
@@ -0,0 +1,93 @@
+package com.pushcrew.client;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+import javax.net.ServerSocketFactory;
+
+import okhttp3.*;
+
+/*
+ * Canned subscribers and API responses shared by the benchmarks.
+ */
+class BenchmarkData {
+    private static final Request REQUEST = new Request.Builder().url("http://localhost/api/v1/").build();
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    static List<String> subscribers(int count) {
+        List<String> result = new ArrayList<String>(count);
+        for (int i=0;i<count;i++) {
+            result.add(String.format("%032x", (long)i * 2654435761L));
+        }
+        return result;
+    }
+
+    static String sendResponse(long requestId) {
+        return "{\"status\":\"success\",\"request_id\":" + requestId + "}";
+    }
+
+    static String notificationStatus(long requestId) {
+        return "{\"status\":\"success\",\"request_id\":" + requestId + ",\"count_delivered\":" + (requestId * 7 % 100000) + ",\"count_clicked\":" + (requestId % 1000) + "}";
+    }
+
+    static String subscriberList(List<String> subscribers) {
+        StringBuilder sb = new StringBuilder("{\"status\":\"success\",\"subscriber_list\":[");
+        for (int i=0;i<subscribers.size();i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append('"').append(subscribers.get(i)).append('"');
+        }
+        return sb.append("]}").toString();
+    }
+
+    static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new UnsupportedOperationException(e);
+        }
+    }
+
+    /* A fresh 200 response around body, as OkHttp would hand it to the parsers. */
+    static Response response(byte[] body) {
+        return new Response.Builder()
+            .request(REQUEST)
+            .protocol(Protocol.HTTP_1_1)
+            .code(200)
+            .body(ResponseBody.create(JSON, body))
+            .build();
+    }
+
+    /*
+     * MockWebServer leaves Nagle's algorithm on, and with delayed ACKs every exchange on localhost
+     * then stalls for ~40ms, swamping whatever the client does. Only the no-arg form is used by
+     * MockWebServer.start().
+     */
+    static final ServerSocketFactory NO_DELAY_SERVER_SOCKETS = new ServerSocketFactory() {
+            public ServerSocket createServerSocket() throws IOException {
+                return new ServerSocket() {
+                    public Socket accept() throws IOException {
+                        Socket socket = super.accept();
+                        socket.setTcpNoDelay(true);
+                        return socket;
+                    }
+                };
+            }
+
+            public ServerSocket createServerSocket(int port) throws IOException {
+                throw new UnsupportedOperationException();
+            }
+
+            public ServerSocket createServerSocket(int port, int backlog) throws IOException {
+                throw new UnsupportedOperationException();
+            }
+
+            public ServerSocket createServerSocket(int port, int backlog, InetAddress address) throws IOException {
+                throw new UnsupportedOperationException();
+            }
+        };
+}
@@ -0,0 +1,86 @@
+package com.pushcrew.client;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * Whole calls through the REST client against a MockWebServer on localhost, so the numbers
+ * cover request building, HTTP and parsing but no real network latency.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class EndToEndBenchmark {
+
+    @Param({"10", "1000"})
+    public int batchSize;
+
+    private MockWebServer server;
+    private PushcrewClient client;
+    private List<String> subscribers;
+    private long[] requestIds;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new MockWebServer();
+        server.setServerSocketFactory(BenchmarkData.NO_DELAY_SERVER_SOCKETS);
+        server.setBodyLimit(0); // MockWebServer keeps every request it sees; don't keep the bodies too
+        final AtomicLong nextRequestId = new AtomicLong();
+        server.setDispatcher(new Dispatcher() {
+                public MockResponse dispatch(RecordedRequest request) {
+                    String path = request.getPath();
+                    if (path.contains("/checkstatus/")) {
+                        long requestId = Long.parseLong(path.substring(path.lastIndexOf('/') + 1));
+                        return new MockResponse().setBody(BenchmarkData.notificationStatus(requestId));
+                    } else if (path.contains("/send/")) {
+                        return new MockResponse().setBody(BenchmarkData.sendResponse(nextRequestId.incrementAndGet()));
+                    }
+                    return new MockResponse().setResponseCode(404);
+                }
+            });
+        server.start();
+        client = PushcrewClientFactory.builder("benchmark-key")
+            .endpoint(server.url("/api/v1/").toString())
+            .maxRequests(64, 64)
+            .build();
+        subscribers = BenchmarkData.subscribers(batchSize);
+        requestIds = new long[batchSize];
+        for (int i=0;i<batchSize;i++) {
+            requestIds[i] = i + 1;
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void drainRecordedRequests() throws InterruptedException {
+        while (server.takeRequest(0, TimeUnit.SECONDS) != null) {
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Benchmark
+    public Map<Long,PushcrewResponses.NotificationStatus> checkStatuses() throws IOException, PushcrewResponses.PushcrewException {
+        return client.checkStatuses(requestIds);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public PushcrewResponses.SendResponse sendToList() throws IOException, PushcrewResponses.PushcrewException {
+        return client.sendToList("Benchmark title", "Benchmark message", "https://www.example.com/", subscribers);
+    }
+}
@@ -0,0 +1,72 @@
+package com.pushcrew.client;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Request;
+import okio.Buffer;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * Cost of turning a call into bytes on the wire: form encoding and the send/list body, which is
+ * written to an in-memory sink so lazily built bodies are measured in full.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class RequestBuildingBenchmark {
+
+    /* Only sendToListBody depends on the list size, so only it is run once per subscriberCount. */
+    @State(Scope.Benchmark)
+    public static class Subscribers {
+        @Param({"10", "1000", "100000"})
+        public int subscriberCount;
+
+        List<String> subscribers;
+
+        @Setup
+        public void setup() {
+            subscribers = BenchmarkData.subscribers(subscriberCount);
+        }
+    }
+
+    private PushcrewRequests requests;
+    private Map<String,String> form;
+
+    @Setup
+    public void setup() throws IOException {
+        requests = new PushcrewRequests("benchmark-key", "http://localhost/api/v1/");
+        form = new HashMap<String,String>();
+        form.put("title", "Benchmark title");
+        form.put("message", "A message with spaces & symbols = 100%");
+        form.put("url", "https://www.example.com/landing?utm_source=push&utm_medium=benchmark");
+    }
+
+    @Benchmark
+    public long urlEncodeForm() throws IOException {
+        StreamingFormBody body = new StreamingFormBody();
+        for (Map.Entry<String,String> field : form.entrySet()) {
+            body.add(field.getKey(), field.getValue());
+        }
+        Buffer sink = new Buffer();
+        body.writeTo(sink);
+        long size = sink.size();
+        sink.clear();
+        return size;
+    }
+
+    @Benchmark
+    public long sendToListBody(Subscribers list) throws IOException {
+        Request request = requests.sendToList("Benchmark title", "Benchmark message", "https://www.example.com/", list.subscribers);
+        Buffer sink = new Buffer();
+        request.body().writeTo(sink);
+        long size = sink.size();
+        sink.clear();
+        return size;
+    }
+}
@@ -0,0 +1,58 @@
+package com.pushcrew.client;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * Cost of parsing each kind of response from an already received body. Run with -prof gc to
+ * see allocation per operation alongside the timings.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ResponseParsingBenchmark {
+
+    /* Only getSubscribers depends on the list size, so only it is run once per subscriberCount. */
+    @State(Scope.Benchmark)
+    public static class SubscriberList {
+        @Param({"10", "1000", "100000"})
+        public int subscriberCount;
+
+        byte[] body;
+
+        @Setup
+        public void setup() {
+            body = BenchmarkData.utf8(BenchmarkData.subscriberList(BenchmarkData.subscribers(subscriberCount)));
+        }
+    }
+
+    private byte[] sendResponse;
+    private byte[] notificationStatus;
+
+    @Setup
+    public void setup() {
+        sendResponse = BenchmarkData.utf8(BenchmarkData.sendResponse(123456789L));
+        notificationStatus = BenchmarkData.utf8(BenchmarkData.notificationStatus(123456789L));
+    }
+
+    @Benchmark
+    public PushcrewResponses.SendResponse sendResponse() throws IOException, PushcrewResponses.PushcrewException {
+        return new PushcrewResponses.SendResponse(BenchmarkData.response(sendResponse));
+    }
+
+    @Benchmark
+    public PushcrewResponses.NotificationStatus notificationStatus() throws IOException, PushcrewResponses.PushcrewException {
+        return new PushcrewResponses.NotificationStatus(BenchmarkData.response(notificationStatus));
+    }
+
+    @Benchmark
+    public List<String> getSubscribers(SubscriberList list) throws IOException, PushcrewResponses.PushcrewException {
+        return PushcrewResponses.parseSubscribers(BenchmarkData.response(list.body));
+    }
+}
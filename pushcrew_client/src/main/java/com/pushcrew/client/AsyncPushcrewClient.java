@@ -0,0 +1,38 @@
+package com.pushcrew.client;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * Non-blocking counterpart of PushcrewClient. Every call is enqueued on the underlying
+ * OkHttp dispatcher and returns immediately; failures (IOException or PushcrewException)
+ * complete the returned future exceptionally. Callbacks attached with thenApply etc. run
+ * on the OkHttp dispatcher threads unless an *Async variant is used, so keep them short.
+ */
+public interface AsyncPushcrewClient {
+
+    public CompletableFuture<PushcrewResponses.SendResponse> sendToAll(String title, String message, String url);
+
+    public CompletableFuture<PushcrewResponses.SendResponse> sendToList(String title, String message, String url, List<String> subscribers);
+
+    public CompletableFuture<PushcrewResponses.SendResponse> sendToSubscriber(String title, String message, String url, String subscriber);
+
+    public CompletableFuture<PushcrewResponses.NotificationStatus> checkStatus(PushcrewResponse response);
+
+    public CompletableFuture<PushcrewResponses.NotificationStatus> checkStatus(long requestId);
+
+    public CompletableFuture<Map<Long,PushcrewResponses.NotificationStatus>> checkStatuses(Set<Long> requestIds);
+    public CompletableFuture<Map<Long,PushcrewResponses.NotificationStatus>> checkStatuses(long[] requestIds);
+
+    public CompletableFuture<List<Segment>> getSegments();
+
+    public CompletableFuture<List<String>> getSubscribers(long segmentId);
+
+    public CompletableFuture<PushcrewResponses.CreateSegmentResponse> addSegment(String segmentName);
+
+    public CompletableFuture<Segment> ensureSegmentExists(String segmentName);
+
+    public CompletableFuture<Void> deleteSegment(long segmentId);
+
+    public CompletableFuture<Void> addSubscribersToSegment(long segmentId, List<String> subscriberIds);
+}
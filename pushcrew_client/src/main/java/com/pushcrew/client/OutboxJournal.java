@@ -0,0 +1,331 @@
+package com.pushcrew.client;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/*
+ * Append-only journal behind PushcrewOutbox. Each record is framed as
+ *
+ *   int length | int crc32(payload) | payload
+ *
+ * where the payload starts with a type byte and the entry's sequence number. On open, the journal
+ * is read up to the first torn or corrupt record, and rewritten to hold just the entries that were
+ * never delivered or abandoned. The same rewrite compacts the journal while it is in use: the live
+ * entries (which the outbox holds in memory anyway) go to a temporary file that is then renamed
+ * over the journal, so a crash leaves either the old file or the new one. A rewritten journal
+ * starts with a SEQUENCE record carrying the next sequence number, so numbers are never handed
+ * out twice across restarts.
+ * Appends go to the page cache; sync() makes them durable, so callers can group many appends per
+ * fsync. A ReentrantLock rather than synchronized guards the file, so a virtual thread waiting out
+ * an fsync does not pin its carrier.
+ *
+ * Writes go through RandomAccessFile rather than a FileChannel: a channel is closed for good when
+ * a thread writing to it is interrupted, and callers such as request threads are interrupted
+ * routinely. If a write does fail, the file is reopened and cut back to its last whole record
+ * before the next one, rather than failing every later call.
+ */
+class OutboxJournal implements Closeable {
+    private static final byte ENQUEUED = 1;
+    private static final byte DELIVERED = 2;
+    private static final byte ABANDONED = 3;
+    private static final byte SEQUENCE = 4;
+
+    static class Entry {
+        final long sequence;
+        final String title;
+        final String message;
+        final String url;
+        final List<String> subscribers; // null for send/all
+
+        Entry(long seq, String t, String m, String u, List<String> s) {
+            sequence = seq;
+            title = t;
+            message = m;
+            url = u;
+            subscribers = s;
+        }
+    }
+
+    private final File file;
+    private final long compactBytes;
+    private final List<Entry> recovered;
+    private final Map<Long,Entry> live = new LinkedHashMap<Long,Entry>(); // neither delivered nor abandoned
+    private RandomAccessFile out; // null after a failed write, until the next write reopens it
+    private long length; // of the file up to its last whole record
+    private long rewrittenLength; // of the file right after the last rewrite
+    private long nextSequence;
+    private boolean dirty;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /*
+     * Once the journal has grown past compactAfterBytes it is rewritten whenever nothing is pending,
+     * or when it has also doubled since the last rewrite, so rewrites stay cheap per record even
+     * while some entry is never settled.
+     */
+    OutboxJournal(File f, long compactAfterBytes) throws IOException {
+        file = f;
+        compactBytes = compactAfterBytes;
+        recovered = recover();
+        for (Entry entry : recovered) {
+            live.put(entry.sequence, entry);
+        }
+        rewrite();
+    }
+
+    /* Entries found pending when the journal was opened, in sequence order. */
+    List<Entry> recovered() {
+        return recovered;
+    }
+
+    private List<Entry> recover() throws IOException {
+        Map<Long,Entry> open = new LinkedHashMap<Long,Entry>();
+        if (file.exists()) {
+            long remaining = file.length();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                byte[] payload;
+                while ((payload = readFrame(in, remaining)) != null) {
+                    remaining -= 8 + payload.length;
+                    DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                    byte type = record.readByte();
+                    long sequence = record.readLong();
+                    if (type == SEQUENCE) {
+                        nextSequence = Math.max(nextSequence, sequence);
+                        continue;
+                    }
+                    nextSequence = Math.max(nextSequence, sequence + 1);
+                    if (type == ENQUEUED) {
+                        open.put(sequence, readEntry(sequence, record));
+                    } else {
+                        open.remove(sequence);
+                    }
+                }
+            }
+        }
+        return Collections.unmodifiableList(new ArrayList<Entry>(open.values()));
+    }
+
+    /* Atomically replaces the file with a SEQUENCE record followed by the live entries. */
+    private void rewrite() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        long written = 0;
+        try (FileOutputStream stream = new FileOutputStream(tmp)) {
+            BufferedOutputStream buffered = new BufferedOutputStream(stream);
+            byte[] frame = frame(sequenceRecord(nextSequence));
+            buffered.write(frame);
+            written += frame.length;
+            for (Entry entry : live.values()) {
+                frame = frame(enqueuedRecord(entry));
+                buffered.write(frame);
+                written += frame.length;
+            }
+            buffered.flush();
+            stream.getFD().sync();
+        }
+        if (out != null) {
+            out.close();
+            out = null; // if the move fails, the next write reopens the old file as it was
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        length = written;
+        rewrittenLength = written;
+        dirty = false;
+        out = open();
+    }
+
+    /* Returns the next intact payload, or null at the end of the file or at a torn/corrupt tail. */
+    private static byte[] readFrame(DataInputStream in, long remaining) throws IOException {
+        try {
+            int length = in.readInt();
+            int crc = in.readInt();
+            if (length < 9 || length > remaining - 8) {
+                return null;
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            CRC32 check = new CRC32();
+            check.update(payload);
+            return (int)check.getValue() == crc ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static Entry readEntry(long sequence, DataInputStream record) throws IOException {
+        String title = readString(record);
+        String message = readString(record);
+        String url = readString(record);
+        int count = record.readInt();
+        List<String> subscribers = null;
+        if (count >= 0) {
+            subscribers = new ArrayList<String>(count);
+            for (int i=0;i<count;i++) {
+                subscribers.add(readString(record));
+            }
+        }
+        return new Entry(sequence, title, message, url, subscribers);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] enqueuedRecord(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(ENQUEUED);
+        out.writeLong(entry.sequence);
+        writeString(out, entry.title);
+        writeString(out, entry.message);
+        writeString(out, entry.url);
+        if (entry.subscribers == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(entry.subscribers.size());
+            for (String subscriber : entry.subscribers) {
+                writeString(out, subscriber);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] closingRecord(byte type, long sequence, long requestId) {
+        ByteBuffer buffer = ByteBuffer.allocate(17);
+        buffer.put(type).putLong(sequence).putLong(requestId);
+        return buffer.array();
+    }
+
+    private static byte[] sequenceRecord(long nextSequence) {
+        ByteBuffer buffer = ByteBuffer.allocate(9);
+        buffer.put(SEQUENCE).putLong(nextSequence);
+        return buffer.array();
+    }
+
+    private static byte[] frame(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer frame = ByteBuffer.allocate(8 + payload.length);
+        frame.putInt(payload.length).putInt((int)crc.getValue()).put(payload);
+        return frame.array();
+    }
+
+    private RandomAccessFile open() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(this.file, "rw");
+        try {
+            file.setLength(length); // drops whatever a failed write left after the last whole record
+            file.seek(length);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        return file;
+    }
+
+    /* Appends one record, reopening the file first if an earlier write failed. */
+    private void write(byte[] payload) throws IOException {
+        if (out == null) {
+            out = open();
+        }
+        byte[] frame = frame(payload);
+        try {
+            out.write(frame);
+        } catch (IOException e) {
+            try {
+                out.close();
+            } catch (IOException closeError) {
+                e.addSuppressed(closeError);
+            }
+            out = null;
+            throw e;
+        }
+        length += frame.length;
+        dirty = true;
+    }
+
+    Entry append(String title, String message, String url, List<String> subscribers) throws IOException {
+        lock.lock();
+        try {
+            Entry entry = new Entry(nextSequence, title, message, url, subscribers == null ? null : new ArrayList<String>(subscribers));
+            write(enqueuedRecord(entry));
+            nextSequence++;
+            live.put(entry.sequence, entry);
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void delivered(long sequence, long requestId) throws IOException {
+        lock.lock();
+        try {
+            closeEntry(DELIVERED, sequence, requestId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void abandoned(long sequence) throws IOException {
+        lock.lock();
+        try {
+            closeEntry(ABANDONED, sequence, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void closeEntry(byte type, long sequence, long requestId) throws IOException {
+        live.remove(sequence);
+        write(closingRecord(type, sequence, requestId));
+        if (length > compactBytes && (live.isEmpty() || length > 2 * rewrittenLength)) {
+            rewrite();
+        }
+    }
+
+    /* Makes every append so far durable; cheap when nothing was written since the last call. */
+    void sync() throws IOException {
+        lock.lock();
+        try {
+            if (dirty && out != null) {
+                out.getFD().sync();
+                dirty = false;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int pending() {
+        lock.lock();
+        try {
+            return live.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            sync();
+            if (out != null) {
+                out.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
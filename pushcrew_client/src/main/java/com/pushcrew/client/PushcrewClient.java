@@ -3,8 +3,14 @@ package com.pushcrew.client;
 import java.net.URL;
 import java.net.MalformedURLException;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.net.URLEncoder;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -20,6 +26,28 @@ public interface PushcrewClient {
 
     public PushcrewResponses.SendResponse sendToList(String title, String message, String url, List<String> subscribers) throws IOException, PushcrewResponses.PushcrewException;
 
+    /*
+     * Splits subscribers into chunks of at most chunkSize and sends each chunk as its own send/list
+     * request, with at most maxInFlight requests outstanding. Failed chunks are reported rather than
+     * aborting the send. The default implementation is serial.
+     */
+    public default PushcrewResponses.BulkSendResponse sendToListInChunks(String title, String message, String url, List<String> subscribers, int chunkSize, int maxInFlight) throws IOException {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive, was " + chunkSize);
+        }
+        List<PushcrewResponses.SendResponse> responses = new ArrayList<PushcrewResponses.SendResponse>();
+        List<PushcrewResponses.ChunkFailure> failures = new ArrayList<PushcrewResponses.ChunkFailure>();
+        for (int start=0;start<subscribers.size();start+=chunkSize) {
+            List<String> chunk = subscribers.subList(start, Math.min(start + chunkSize, subscribers.size()));
+            try {
+                responses.add(sendToList(title, message, url, chunk));
+            } catch (PushcrewResponses.PushcrewException | IOException e) {
+                failures.add(new PushcrewResponses.ChunkFailure(chunk, e));
+            }
+        }
+        return new PushcrewResponses.BulkSendResponse(responses, failures);
+    }
+
     public PushcrewResponses.SendResponse sendToSubscriber(String title, String message, String url, String subscriber) throws IOException, PushcrewResponses.PushcrewException;
 
     public PushcrewResponses.NotificationStatus checkStatus(PushcrewResponse response) throws IOException, PushcrewResponses.PushcrewException;
@@ -29,15 +57,94 @@ public interface PushcrewClient {
     public Map<Long,PushcrewResponses.NotificationStatus> checkStatuses(Set<Long> requestIds) throws IOException, PushcrewResponses.PushcrewException;
     public Map<Long,PushcrewResponses.NotificationStatus> checkStatuses(long[] requestIds) throws IOException, PushcrewResponses.PushcrewException;
 
+    /*
+     * Checks every request ID with at most maxInFlight requests outstanding at once. Failures
+     * are collected per ID rather than aborting the batch. The default implementation is serial.
+     */
+    public default PushcrewResponses.StatusBatch checkStatusesPartial(long[] requestIds, int maxInFlight) throws IOException {
+        Map<Long,PushcrewResponses.NotificationStatus> statuses = new HashMap<Long,PushcrewResponses.NotificationStatus>();
+        Map<Long,Exception> failures = new HashMap<Long,Exception>();
+        for (long requestId : requestIds) {
+            try {
+                statuses.put(requestId, checkStatus(requestId));
+            } catch (PushcrewResponses.PushcrewException | IOException e) {
+                failures.put(requestId, e);
+            }
+        }
+        return new PushcrewResponses.StatusBatch(statuses, failures);
+    }
+
     public List<Segment> getSegments() throws IOException, PushcrewResponses.PushcrewException;
 
     public List<String> getSubscribers(long segmentId) throws IOException, PushcrewResponses.PushcrewException;
 
+    /*
+     * Streams the segment's subscribers to the consumer and returns how many there were. Unlike
+     * getSubscribers, the REST client never holds the whole list; the default implementation does.
+     */
+    public default long forEachSubscriber(long segmentId, Consumer<String> consumer) throws IOException, PushcrewResponses.PushcrewException {
+        List<String> subscribers = getSubscribers(segmentId);
+        for (String subscriber : subscribers) {
+            consumer.accept(subscriber);
+        }
+        return subscribers.size();
+    }
+
     public PushcrewResponses.CreateSegmentResponse addSegment(String segmentName) throws IOException, PushcrewResponses.PushcrewException;
 
     public Segment ensureSegmentExists(String segmentName) throws IOException, PushcrewResponses.PushcrewException;
 
+    /*
+     * Looks a segment up by name, returning null if there is none.
+     */
+    public default Segment findSegment(String segmentName) throws IOException, PushcrewResponses.PushcrewException {
+        for (Segment segment : getSegments()) {
+            if (segment.name.equals(segmentName)) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
     public void deleteSegment(long segmentId) throws IOException, PushcrewResponses.PushcrewException;
 
     public void addSubscribersToSegment(long segmentId, List<String> subscriberIds) throws IOException, PushcrewResponses.PushcrewException;
+
+    /*
+     * Adds every ID in subscriberIds that is not already a member of the segment, posting the new
+     * ones in chunks of at most chunkSize with at most maxInFlight requests outstanding. Current
+     * members are read once up front and kept as fingerprints, and the input is consumed lazily, so
+     * an import of millions of IDs never holds them all. Failed chunks are reported rather than
+     * aborting the import. The default implementation posts serially.
+     */
+    public default PushcrewResponses.ImportResponse importSubscribersToSegment(long segmentId, Iterator<String> subscriberIds, int chunkSize, int maxInFlight) throws IOException, PushcrewResponses.PushcrewException {
+        SegmentImport diff = new SegmentImport(this, segmentId, subscriberIds, chunkSize);
+        long added = 0;
+        List<PushcrewResponses.ChunkFailure> failures = new ArrayList<PushcrewResponses.ChunkFailure>();
+        List<String> chunk;
+        while ((chunk = diff.nextChunk()) != null) {
+            try {
+                addSubscribersToSegment(segmentId, chunk);
+                added += chunk.size();
+            } catch (PushcrewResponses.PushcrewException | IOException e) {
+                failures.add(new PushcrewResponses.ChunkFailure(chunk, e));
+            }
+        }
+        return new PushcrewResponses.ImportResponse(diff.existing, added, diff.skipped(), failures);
+    }
+
+    public default PushcrewResponses.ImportResponse importSubscribersToSegment(long segmentId, Stream<String> subscriberIds, int chunkSize, int maxInFlight) throws IOException, PushcrewResponses.PushcrewException {
+        return importSubscribersToSegment(segmentId, subscriberIds.iterator(), chunkSize, maxInFlight);
+    }
+
+    /*
+     * Imports a UTF-8 file with one subscriber ID per line; blank lines are ignored.
+     */
+    public default PushcrewResponses.ImportResponse importSubscribersToSegment(long segmentId, Path file, int chunkSize, int maxInFlight) throws IOException, PushcrewResponses.PushcrewException {
+        try (Stream<String> lines = Files.lines(file, StandardCharsets.UTF_8)) {
+            return importSubscribersToSegment(segmentId, lines.map(String::trim).filter(line -> !line.isEmpty()), chunkSize, maxInFlight);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
 }
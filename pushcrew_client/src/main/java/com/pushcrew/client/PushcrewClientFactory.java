@@ -1,133 +1,326 @@
 package com.pushcrew.client;
 
-import java.net.URL;
 import java.net.MalformedURLException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.io.File;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-
-import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.InterruptedIOException;
 
 import okhttp3.*;
 
-import com.fasterxml.jackson.core.JsonGenerationException;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.JsonNode;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class PushcrewClientFactory {
     public static PushcrewClient getClient(String apiKey) throws MalformedURLException {
-        return new RESTPushcrewClient(apiKey);
+        return builder(apiKey).build();
     }
 
-    private static class RESTPushcrewClient implements PushcrewClient {
-        final String apiKey;
-        final String restEndpoint;
-        final URL restEndpointURL;
+    /*
+     * A client that serves ensureSegmentExists and findSegment from the given cache when it can.
+     */
+    public static PushcrewClient getClient(String apiKey, SegmentCache segmentCache) throws MalformedURLException {
+        return builder(apiKey).segmentCache(segmentCache).build();
+    }
 
-        Logger logger = LoggerFactory.getLogger("com.pushcrew.client");
+    /*
+     * A client whose requests pass through the given rate limiter; segmentCache may be null.
+     */
+    public static PushcrewClient getClient(String apiKey, SegmentCache segmentCache, PushcrewRateLimiter rateLimiter) throws MalformedURLException {
+        return getClient(apiKey, segmentCache, rateLimiter, null);
+    }
+
+    /*
+     * As above, also retrying failed calls according to retryPolicy. Any argument after the key
+     * may be null. Each retry attempt goes through the rate limiter again.
+     */
+    public static PushcrewClient getClient(String apiKey, SegmentCache segmentCache, PushcrewRateLimiter rateLimiter, PushcrewRetryPolicy retryPolicy) throws MalformedURLException {
+        return builder(apiKey).segmentCache(segmentCache).rateLimiter(rateLimiter).retryPolicy(retryPolicy).build();
+    }
+
+    public static AsyncPushcrewClient getAsyncClient(String apiKey) throws MalformedURLException {
+        return builder(apiKey).buildAsync();
+    }
+
+    public static AsyncPushcrewClient getAsyncClient(String apiKey, PushcrewRateLimiter rateLimiter) throws MalformedURLException {
+        return getAsyncClient(apiKey, rateLimiter, null);
+    }
+
+    public static AsyncPushcrewClient getAsyncClient(String apiKey, PushcrewRateLimiter rateLimiter, PushcrewRetryPolicy retryPolicy) throws MalformedURLException {
+        return builder(apiKey).rateLimiter(rateLimiter).retryPolicy(retryPolicy).buildAsync();
+    }
+
+    public static Builder builder(String apiKey) {
+        return new Builder(apiKey);
+    }
 
-        public RESTPushcrewClient(String key, String endpoint) throws MalformedURLException {
+    /*
+     * Configures the HTTP stack behind a client. Anything left unset keeps OkHttp's default, or the
+     * setting of the client passed to httpClient(...). Clients built from the same OkHttpClient share
+     * its connection pool and dispatcher unless connectionPool or maxRequests is set here, which
+     * gives the new client its own. The one exception is retryOnConnectionFailure, which is always
+     * off: OkHttp would otherwise replay a POST whose connection broke after the server read it, so
+     * PushcrewRetryPolicy alone decides what is retried.
+     */
+    public static class Builder {
+        private final String apiKey;
+        private String endpoint = PushcrewRequests.DEFAULT_ENDPOINT;
+        private OkHttpClient httpClient;
+        private ConnectionPool connectionPool;
+        private int maxRequests;
+        private int maxRequestsPerHost;
+        private long connectTimeoutMillis = -1;
+        private long readTimeoutMillis = -1;
+        private long writeTimeoutMillis = -1;
+        private Boolean preferHttp2;
+        private Cache responseCache;
+        private SegmentCache segmentCache;
+        private PushcrewRateLimiter rateLimiter;
+        private PushcrewRetryPolicy retryPolicy;
+        private PushcrewMetrics metrics;
+        private ExecutorService bulkExecutor;
+        private int bulkMaxInFlight;
+
+        Builder(String key) {
             apiKey = key;
-            restEndpoint = endpoint;
-            restEndpointURL = new URL(restEndpoint);
-            logger.debug("Initialized pushcrew client");
         }
 
-        public RESTPushcrewClient(String key) throws MalformedURLException {
-            apiKey = key;
-            restEndpoint = "https://pushcrew.com/api/v1/";
-            restEndpointURL = new URL(restEndpoint);
-            logger.debug("Initialized pushcrew client");
+        public Builder endpoint(String restEndpoint) {
+            endpoint = restEndpoint;
+            return this;
         }
 
-        private final OkHttpClient client = new OkHttpClient();
+        public Builder httpClient(OkHttpClient client) {
+            httpClient = client;
+            return this;
+        }
 
-        private Request.Builder authedReq() {
-            return (new Request.Builder()).addHeader("Authorization", apiKey);
+        public Builder connectionPool(int maxIdleConnections, long keepAlive, TimeUnit unit) {
+            connectionPool = new ConnectionPool(maxIdleConnections, keepAlive, unit);
+            return this;
         }
 
-        private Request getRequest(String path) {
-            return authedReq().url(restEndpoint + path).build();
+        public Builder maxRequests(int total, int perHost) {
+            if (total < 1 || perHost < 1) {
+                throw new IllegalArgumentException("maxRequests must be positive");
+            }
+            maxRequests = total;
+            maxRequestsPerHost = perHost;
+            return this;
         }
 
-        private static String urlEncodeUTF8(String s) {
-            try {
-                return URLEncoder.encode(s, "UTF-8");
-            } catch (UnsupportedEncodingException e) {
-                throw new UnsupportedOperationException(e);
+        public Builder connectTimeout(long timeout, TimeUnit unit) {
+            connectTimeoutMillis = unit.toMillis(timeout);
+            return this;
+        }
+
+        public Builder readTimeout(long timeout, TimeUnit unit) {
+            readTimeoutMillis = unit.toMillis(timeout);
+            return this;
+        }
+
+        public Builder writeTimeout(long timeout, TimeUnit unit) {
+            writeTimeoutMillis = unit.toMillis(timeout);
+            return this;
+        }
+
+        /* true offers HTTP/2 first, falling back to HTTP/1.1; false sticks to HTTP/1.1. */
+        public Builder preferHttp2(boolean prefer) {
+            preferHttp2 = prefer;
+            return this;
+        }
+
+        public Builder responseCache(File directory, long maxSizeBytes) {
+            responseCache = new Cache(directory, maxSizeBytes);
+            return this;
+        }
+
+        public Builder segmentCache(SegmentCache cache) {
+            segmentCache = cache;
+            return this;
+        }
+
+        public Builder rateLimiter(PushcrewRateLimiter limiter) {
+            rateLimiter = limiter;
+            return this;
+        }
+
+        public Builder retryPolicy(PushcrewRetryPolicy policy) {
+            retryPolicy = policy;
+            return this;
+        }
+
+        /*
+         * Instruments the client; see PushcrewMetrics for what is recorded. One PushcrewMetrics per client.
+         */
+        public Builder metrics(PushcrewMetrics m) {
+            metrics = m;
+            return this;
+        }
+
+        /*
+         * Runs the requests of bulk operations (checkStatuses, sendToListInChunks,
+         * importSubscribersToSegment) as blocking calls on executor rather than on OkHttp's dispatcher,
+         * so the dispatcher's per-host limit no longer caps them. checkStatuses keeps up to maxInFlight
+         * requests outstanding; the other bulk methods take their own limit. The client never shuts
+         * the executor down.
+         */
+        public Builder bulkExecutor(ExecutorService executor, int maxInFlight) {
+            if (maxInFlight < 1) {
+                throw new IllegalArgumentException("maxInFlight must be positive, was " + maxInFlight);
             }
+            bulkExecutor = executor;
+            bulkMaxInFlight = maxInFlight;
+            return this;
         }
 
-        private static String urlEncodeUTF8(Map<String,String> map) {
-            StringBuilder sb = new StringBuilder();
-            for (Map.Entry<String,String> entry : map.entrySet()) {
-                if (sb.length() > 0) {
-                    sb.append("&");
-                }
-                sb.append(String.format("%s=%s",
-                                        urlEncodeUTF8(entry.getKey().toString()),
-                                        urlEncodeUTF8(entry.getValue().toString())
-                                        ));
+        /*
+         * bulkExecutor on a virtual-thread-per-task executor. Needs Java 21; on older runtimes this
+         * throws UnsupportedOperationException.
+         */
+        public Builder virtualThreads(int maxInFlight) {
+            return bulkExecutor(newVirtualThreadPerTaskExecutor(), maxInFlight);
+        }
+
+        OkHttpClient buildHttpClient() {
+            OkHttpClient.Builder builder = httpClient == null ? new OkHttpClient.Builder() : httpClient.newBuilder();
+            builder.retryOnConnectionFailure(false);
+            if (connectionPool != null) {
+                builder.connectionPool(connectionPool);
+            }
+            if (maxRequests > 0) {
+                Dispatcher dispatcher = new Dispatcher();
+                dispatcher.setMaxRequests(maxRequests);
+                dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+                builder.dispatcher(dispatcher);
+            }
+            if (connectTimeoutMillis >= 0) {
+                builder.connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            if (readTimeoutMillis >= 0) {
+                builder.readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            if (writeTimeoutMillis >= 0) {
+                builder.writeTimeout(writeTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            if (preferHttp2 != null) {
+                builder.protocols(preferHttp2 ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1) : Arrays.asList(Protocol.HTTP_1_1));
+            }
+            if (responseCache != null) {
+                builder.cache(responseCache);
+            }
+            // Metrics see the whole call; the retry policy sits outside the rate limiter so every attempt draws a token.
+            if (metrics != null) {
+                builder.addInterceptor(metrics);
+            }
+            if (retryPolicy != null) {
+                builder.addInterceptor(retryPolicy);
+            }
+            if (rateLimiter != null) {
+                builder.addInterceptor(rateLimiter);
             }
-            return sb.toString();
+            return builder.build();
         }
 
-        private static final MediaType FormEncoded = MediaType.parse("application/x-www-form-urlencoded; charset=utf-8");
-        private static final MediaType JsonEncoded = MediaType.parse("application/json; charset=utf-8");
+        private OkHttpClient buildInstrumentedHttpClient() {
+            OkHttpClient client = buildHttpClient();
+            if (metrics != null) {
+                metrics.registerGauges(client);
+            }
+            return client;
+        }
 
-        private Request postRequest(String path, Map<String,String> params) {
-            RequestBody body = RequestBody.create(FormEncoded, urlEncodeUTF8(params));
-            logger.debug("Creating post request for path {} with body {}", restEndpoint + path, urlEncodeUTF8(params));
-            return authedReq().url(restEndpoint + path).post(body).build();
+        public PushcrewClient build() throws MalformedURLException {
+            return new RESTPushcrewClient(apiKey, endpoint, segmentCache, buildInstrumentedHttpClient(), metrics, rateLimiter, bulkExecutor, bulkMaxInFlight);
         }
 
-        private Request postJsonRequest(String path, Object obj) {
-            try {
-                ObjectMapper mapper = new ObjectMapper();
-                String json = mapper.writeValueAsString(obj);
-                RequestBody body = RequestBody.create(JsonEncoded, json);
-                logger.debug("Creating post request for path {} with body {}", restEndpoint + path, json);
-                return authedReq().url(restEndpoint + path).post(body).build();
-            } catch (JsonProcessingException e) {
-                throw new IllegalArgumentException("this should never occur");
+        public AsyncPushcrewClient buildAsync() throws MalformedURLException {
+            return new RESTAsyncPushcrewClient(apiKey, endpoint, buildInstrumentedHttpClient(), metrics, rateLimiter);
+        }
+    }
+
+    /* Looked up reflectively so the library still builds and runs on Java 8. */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later");
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to create a virtual thread executor", e);
+        }
+    }
+
+    /*
+     * Parses an addSegment response for ensureSegmentExists, returning null for a segment that
+     * already exists. That is the expected case there, so it is not counted in errors.SegmentAlreadyExists.
+     */
+    private static PushcrewResponses.CreateSegmentResponse createdOrNull(Response response) throws IOException, PushcrewResponses.PushcrewException {
+        try {
+            return new PushcrewResponses.CreateSegmentResponse(response);
+        } catch (PushcrewResponses.SegmentAlreadyExists e) {
+            return null;
+        }
+    }
+
+    private static Segment findSegment(List<Segment> segments, String segmentName) {
+        for (Segment segment : segments) {
+            if (segment.name.equals(segmentName)) {
+                return segment;
             }
         }
+        return null;
+    }
+
+    private static class RESTPushcrewClient implements PushcrewClient {
+        final PushcrewRequests requests;
+        final SegmentCache segmentCache; // null when caching is off
+        final PushcrewMetrics metrics; // null when not instrumented
+        final PushcrewRateLimiter rateLimiter; // null when not rate limited
+        final ExecutorService bulkExecutor; // null to fan out on OkHttp's dispatcher
+        final int bulkMaxInFlight;
+
+        Logger logger = LoggerFactory.getLogger("com.pushcrew.client");
+
+        public RESTPushcrewClient(String key, String endpoint, SegmentCache cache, OkHttpClient httpClient, PushcrewMetrics m, PushcrewRateLimiter limiter, ExecutorService executor, int maxInFlight) throws MalformedURLException {
+            requests = new PushcrewRequests(key, endpoint);
+            segmentCache = cache;
+            client = httpClient;
+            metrics = m;
+            rateLimiter = limiter;
+            bulkExecutor = executor;
+            bulkMaxInFlight = maxInFlight;
+            logger.debug("Initialized pushcrew client");
+        }
 
-        private Request deleteRequest(String path, Map<String,String> params) {
-            RequestBody body = RequestBody.create(FormEncoded, urlEncodeUTF8(params));
-            logger.debug("Creating post request for path {} with body {}", restEndpoint + path, urlEncodeUTF8(params));
-            return authedReq().url(restEndpoint + path).delete(body).build();
+        private final OkHttpClient client;
+
+        private <T> T execute(Request request, PushcrewResponses.ResponseParser<T> parser) throws IOException, PushcrewResponses.PushcrewException {
+            try {
+                return parser.parse(client.newCall(request).execute());
+            } catch (IOException | PushcrewResponses.PushcrewException | RuntimeException e) {
+                if (metrics != null) {
+                    metrics.failed(e);
+                }
+                throw e;
+            }
         }
 
         public PushcrewResponses.SendResponse sendToAll(String title, String message, String url) throws IOException, PushcrewResponses.PushcrewException {
-            Map<String,String> params = new java.util.HashMap<String,String>();
-            params.put("title", title);
-            params.put("message", message);
-            params.put("url", url);
-            logger.debug("Calling sendToAll at {}, title: {}, message: {}, url: {}", restEndpoint, title, message, url);
-            return new PushcrewResponses.SendResponse(client.newCall(postRequest("send/all", params)).execute());
+            return execute(requests.sendToAll(title, message, url), PushcrewResponses.SendResponse::new);
         }
 
         public PushcrewResponses.SendResponse sendToList(String title, String message, String url, List<String> subscribers) throws IOException, PushcrewResponses.PushcrewException {
-            Map<String,String> params = new java.util.HashMap<String,String>();
-            params.put("title", title);
-            params.put("message", message);
-            params.put("url", url);
-
-            Map<String,Object> listObj = new HashMap<String,Object>();
-            listObj.put("subscriber_list", subscribers);
-            ObjectMapper mapper = new ObjectMapper();
-            String subscriberListJson = mapper.writeValueAsString(listObj);
-
-            params.put("subscriber_list", subscriberListJson);
-            logger.debug("Calling sendToList at {}, title: {}, message: {}, url: {}, subscriberList: {}", restEndpoint, title, message, url, subscribers);
-            return new PushcrewResponses.SendResponse(client.newCall(postRequest("send/list", params)).execute());
+            return execute(requests.sendToList(title, message, url, subscribers), PushcrewResponses.SendResponse::new);
         }
 
         public PushcrewResponses.SendResponse sendToSubscriber(String title, String message, String url, String subscriber) throws IOException, PushcrewResponses.PushcrewException {
@@ -139,123 +332,436 @@ public class PushcrewClientFactory {
         }
 
         public PushcrewResponses.NotificationStatus checkStatus(long requestId) throws IOException, PushcrewResponses.PushcrewException {
-            logger.debug("Checking status of request {}", requestId);
-            return new PushcrewResponses.NotificationStatus(client.newCall(getRequest("checkstatus/" + requestId)).execute());
+            return execute(requests.checkStatus(requestId), PushcrewResponses.NotificationStatus::new);
         }
 
         public Map<Long,PushcrewResponses.NotificationStatus> checkStatuses(long[] requestIds) throws IOException, PushcrewResponses.PushcrewException {
-            Set<Long> input = new java.util.HashSet<Long>();
-            for (int i=0;i<requestIds.length;i++) {
-                input.add(requestIds[i]);
-            }
-            return checkStatuses(input);
+            int maxInFlight = bulkExecutor != null ? bulkMaxInFlight : client.dispatcher().getMaxRequestsPerHost();
+            return completeOrThrow(checkStatusesPartial(requestIds, maxInFlight));
         }
 
         public Map<Long,PushcrewResponses.NotificationStatus> checkStatuses(Set<Long> requestIds) throws IOException, PushcrewResponses.PushcrewException {
-            Map<Long,PushcrewResponses.NotificationStatus> result = new HashMap<Long,PushcrewResponses.NotificationStatus>();
+            long[] input = new long[requestIds.size()];
+            int i = 0;
             for (Long requestId : requestIds) {
-                result.put(requestId, checkStatus(requestId));
+                input[i++] = requestId;
+            }
+            return checkStatuses(input);
+        }
+
+        private static Map<Long,PushcrewResponses.NotificationStatus> completeOrThrow(PushcrewResponses.StatusBatch batch) throws IOException, PushcrewResponses.PushcrewException {
+            for (Exception failure : batch.failures.values()) {
+                if (failure instanceof IOException) {
+                    throw (IOException)failure;
+                }
+                if (failure instanceof RuntimeException) {
+                    throw (RuntimeException)failure;
+                }
+                throw (PushcrewResponses.PushcrewException)failure;
+            }
+            return batch.statuses;
+        }
+
+        private interface FanOutHandler<T> {
+            void succeeded(int index, T result);
+            void failed(int index, Exception error);
+        }
+
+        private <T> void fanOut(final int count, final IntFunction<Request> requestFor, PushcrewResponses.ResponseParser<T> parser, int maxInFlight, FanOutHandler<T> handler) throws IOException {
+            fanOut(i -> i < count ? requestFor.apply(i) : null, parser, maxInFlight, handler);
+        }
+
+        /*
+         * Issues calls until nextRequest returns null, building each request only when a permit is free
+         * so at most maxInFlight are outstanding. Calls are enqueued on the shared dispatcher (whose
+         * per-host limit applies too), or run as blocking calls on bulkExecutor when there is one.
+         * Returns once every call has completed; handler methods run on the threads doing the calls.
+         */
+        private <T> void fanOut(IntFunction<Request> nextRequest, final PushcrewResponses.ResponseParser<T> parser, int maxInFlight, final FanOutHandler<T> handler) throws IOException {
+            if (maxInFlight < 1) {
+                throw new IllegalArgumentException("maxInFlight must be positive, was " + maxInFlight);
+            }
+            final Semaphore inFlight = new Semaphore(maxInFlight);
+            List<Call> calls = new ArrayList<Call>();
+            try {
+                for (int i=0;;i++) {
+                    final int index = i;
+                    inFlight.acquire();
+                    Request request = nextRequest.apply(index);
+                    if (request == null) {
+                        inFlight.release();
+                        break;
+                    }
+                    final Call call = client.newCall(request);
+                    calls.add(call);
+                    final Callback callback = new Callback() {
+                            public void onFailure(Call c, IOException e) {
+                                if (metrics != null) {
+                                    metrics.failed(e);
+                                }
+                                handler.failed(index, e);
+                                inFlight.release();
+                            }
+
+                            public void onResponse(Call c, Response response) {
+                                try {
+                                    handler.succeeded(index, parser.parse(response));
+                                } catch (IOException | PushcrewResponses.PushcrewException | RuntimeException e) {
+                                    if (metrics != null) {
+                                        metrics.failed(e);
+                                    }
+                                    handler.failed(index, e);
+                                } finally {
+                                    response.body().close();
+                                    inFlight.release();
+                                }
+                            }
+                        };
+                    if (bulkExecutor == null) {
+                        if (rateLimiter != null) {
+                            // wait for the token here rather than on a dispatcher thread
+                            try {
+                                rateLimiter.admit(request);
+                            } catch (IOException e) {
+                                callback.onFailure(call, e);
+                                continue;
+                            }
+                        }
+                        call.enqueue(callback);
+                    } else {
+                        bulkExecutor.execute(() -> {
+                                try {
+                                    // onResponse handles its own failures, so only execute() lands here
+                                    callback.onResponse(call, call.execute());
+                                } catch (IOException e) {
+                                    callback.onFailure(call, e);
+                                }
+                            });
+                    }
+                }
+                inFlight.acquire(maxInFlight);
+                inFlight.release(maxInFlight);
+            } catch (InterruptedException e) {
+                for (Call call : calls) {
+                    call.cancel();
+                }
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + calls.size() + " requests");
             }
-            return result;
+        }
+
+        public PushcrewResponses.StatusBatch checkStatusesPartial(long[] requestIds, int maxInFlight) throws IOException {
+            long[] sorted = requestIds.clone();
+            Arrays.sort(sorted);
+            int distinct = 0;
+            for (int i=0;i<sorted.length;i++) {
+                if (i == 0 || sorted[i] != sorted[i-1]) {
+                    sorted[distinct++] = sorted[i];
+                }
+            }
+            final long[] ids = sorted;
+
+            final Map<Long,PushcrewResponses.NotificationStatus> statuses = new ConcurrentHashMap<Long,PushcrewResponses.NotificationStatus>();
+            final Map<Long,Exception> failures = new ConcurrentHashMap<Long,Exception>();
+            fanOut(distinct, i -> requests.checkStatus(ids[i]), PushcrewResponses.NotificationStatus::new, maxInFlight, new FanOutHandler<PushcrewResponses.NotificationStatus>() {
+                    public void succeeded(int index, PushcrewResponses.NotificationStatus status) {
+                        statuses.put(ids[index], status);
+                    }
+
+                    public void failed(int index, Exception error) {
+                        failures.put(ids[index], error);
+                    }
+                });
+            return new PushcrewResponses.StatusBatch(new HashMap<Long,PushcrewResponses.NotificationStatus>(statuses), new HashMap<Long,Exception>(failures));
+        }
+
+        public PushcrewResponses.BulkSendResponse sendToListInChunks(final String title, final String message, final String url, final List<String> subscribers, final int chunkSize, int maxInFlight) throws IOException {
+            if (chunkSize < 1) {
+                throw new IllegalArgumentException("chunkSize must be positive, was " + chunkSize);
+            }
+            int chunks = (subscribers.size() + chunkSize - 1) / chunkSize;
+            final PushcrewResponses.SendResponse[] sent = new PushcrewResponses.SendResponse[chunks];
+            final Exception[] errors = new Exception[chunks];
+            logger.debug("Sending to {} subscribers in {} chunks", subscribers.size(), chunks);
+            fanOut(chunks, i -> requests.sendToList(title, message, url, chunk(subscribers, i, chunkSize)), PushcrewResponses.SendResponse::new, maxInFlight, new FanOutHandler<PushcrewResponses.SendResponse>() {
+                    public void succeeded(int index, PushcrewResponses.SendResponse response) {
+                        sent[index] = response;
+                    }
+
+                    public void failed(int index, Exception error) {
+                        errors[index] = error;
+                    }
+                });
+            // the semaphore handoff in fanOut publishes the array writes made on dispatcher threads
+            List<PushcrewResponses.SendResponse> responses = new ArrayList<PushcrewResponses.SendResponse>(chunks);
+            List<PushcrewResponses.ChunkFailure> failures = new ArrayList<PushcrewResponses.ChunkFailure>();
+            for (int i=0;i<chunks;i++) {
+                if (sent[i] != null) {
+                    responses.add(sent[i]);
+                } else {
+                    failures.add(new PushcrewResponses.ChunkFailure(chunk(subscribers, i, chunkSize), errors[i]));
+                }
+            }
+            return new PushcrewResponses.BulkSendResponse(responses, failures);
+        }
+
+        private static List<String> chunk(List<String> subscribers, int index, int chunkSize) {
+            int start = index * chunkSize;
+            return subscribers.subList(start, Math.min(start + chunkSize, subscribers.size()));
         }
 
         public List<Segment> getSegments() throws IOException, PushcrewResponses.PushcrewException {
-            logger.debug("Loading a list of segments for {}", apiKey);
-            Response callResult = client.newCall(getRequest("segments")).execute();
-            String jsonBody = callResult.body().string();
-            callResult.body().close();
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode rootNode = mapper.readTree(jsonBody);
-            String status = rootNode.path("status").asText();
-            if (!status.equals("success")) {
-                throw new PushcrewResponses.InvalidResponse(status);
-            }
-            List<Segment> result = new ArrayList<Segment>();
-            Iterator<JsonNode> segmentList = rootNode.path("segment_list").elements();
-            while (segmentList.hasNext()) {
-                JsonNode jsonSegment = segmentList.next();
-                result.add(new Segment(jsonSegment.path("id").asLong(), jsonSegment.path("name").asText()));
+            List<Segment> segments = execute(requests.getSegments(), PushcrewResponses::parseSegments);
+            if (segmentCache != null) {
+                segmentCache.putAll(segments);
             }
-            return result;
+            return segments;
+        }
+
+        public Segment findSegment(String segmentName) throws IOException, PushcrewResponses.PushcrewException {
+            if (segmentCache != null) {
+                Segment cached = segmentCache.get(segmentName);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            return PushcrewClientFactory.findSegment(getSegments(), segmentName);
         }
 
         public PushcrewResponses.CreateSegmentResponse addSegment(String segmentName) throws IOException, PushcrewResponses.PushcrewException {
-            logger.debug("Creating a segment {}", segmentName);
-            Map<String,String> params = new java.util.HashMap<String,String>();
-            params.put("name", segmentName);
-            return new PushcrewResponses.CreateSegmentResponse(client.newCall(postRequest("segments", params)).execute());
+            return addSegment(segmentName, PushcrewResponses.CreateSegmentResponse::new);
+        }
+
+        private PushcrewResponses.CreateSegmentResponse addSegment(String segmentName, PushcrewResponses.ResponseParser<PushcrewResponses.CreateSegmentResponse> parser) throws IOException, PushcrewResponses.PushcrewException {
+            if (segmentCache != null) {
+                segmentCache.invalidate(segmentName);
+            }
+            PushcrewResponses.CreateSegmentResponse response = execute(requests.addSegment(segmentName), parser);
+            if (segmentCache != null && response != null) {
+                segmentCache.put(new Segment(response.segment_id, segmentName));
+            }
+            return response;
         }
 
         public Segment ensureSegmentExists(String segmentName) throws IOException, PushcrewResponses.PushcrewException {
             logger.debug("Ensuring segment {} exists", segmentName);
-            try {
-                PushcrewResponses.CreateSegmentResponse segmentResponse = addSegment(segmentName);
-                return new Segment(segmentResponse.segment_id, segmentName);
-            } catch (PushcrewResponses.SegmentAlreadyExists e) {
-                List<Segment> segments = getSegments();
-                for (Segment segment : segments) {
-                    if (segment.name.equals(segmentName)) {
-                        return segment;
-                    }
+            if (segmentCache != null) {
+                Segment cached = segmentCache.get(segmentName);
+                if (cached != null) {
+                    return cached;
                 }
             }
+            PushcrewResponses.CreateSegmentResponse segmentResponse = addSegment(segmentName, PushcrewClientFactory::createdOrNull);
+            if (segmentResponse != null) {
+                return new Segment(segmentResponse.segment_id, segmentName);
+            }
+            Segment segment = PushcrewClientFactory.findSegment(getSegments(), segmentName);
+            if (segment != null) {
+                return segment;
+            }
             throw new PushcrewResponses.PushcrewException("Unable to create segment " + segmentName + " or to find an existing segment.");
         }
 
         public void deleteSegment(long segmentId) throws IOException, PushcrewResponses.PushcrewException {
-            logger.debug("Deleting segment {}", segmentId);
-            Response response = client.newCall(deleteRequest("segments/" + segmentId, new java.util.HashMap<String,String>())).execute();
-            String body = response.body().string();
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode rootNode = mapper.readTree(body);
-            String status = rootNode.path("status").asText();
-            System.out.println(body);
-            if (status.equals("success")) {
-                return;
-            } else {
-                throw new PushcrewResponses.PushcrewException(rootNode.path("message").asText());
+            if (segmentCache != null) {
+                segmentCache.invalidate(segmentId);
             }
+            execute(requests.deleteSegment(segmentId), PushcrewResponses::parseDeleteSegment);
         }
 
         public List<String> getSubscribers(long segmentId) throws IOException, PushcrewResponses.PushcrewException {
-            Response response = client.newCall(getRequest("segments/" + segmentId + "/subscribers")).execute();
-            String jsonBody = response.body().string();
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode rootNode = mapper.readTree(jsonBody);
-            String status = rootNode.path("status").asText();
-            if (!status.equals("success")) {
-                throw new PushcrewResponses.InvalidResponse(status);
-            }
-            List<String> result = new ArrayList<String>();
-            Iterator<JsonNode> segmentList = rootNode.path("subscriber_list").elements();
-            while (segmentList.hasNext()) {
-                JsonNode subscriber = segmentList.next();
-                result.add(subscriber.asText());
-            }
-            return result;
+            return execute(requests.getSubscribers(segmentId), PushcrewResponses::parseSubscribers);
+        }
+
+        public long forEachSubscriber(long segmentId, final Consumer<String> consumer) throws IOException, PushcrewResponses.PushcrewException {
+            return execute(requests.getSubscribers(segmentId), response -> PushcrewResponses.parseSubscribers(response, consumer));
+        }
+
+        public void addSubscribersToSegment(final long segmentId, List<String> subscriberIds) throws IOException, PushcrewResponses.PushcrewException {
+            execute(requests.addSubscribersToSegment(segmentId, subscriberIds), response -> PushcrewResponses.parseAddSubscribers(segmentId, response));
+        }
+
+        public PushcrewResponses.ImportResponse importSubscribersToSegment(final long segmentId, Iterator<String> subscriberIds, int chunkSize, int maxInFlight) throws IOException, PushcrewResponses.PushcrewException {
+            final SegmentImport diff = new SegmentImport(this, segmentId, subscriberIds, chunkSize);
+            logger.debug("Segment {} has {} members before import", segmentId, diff.existing);
+            // chunks stay here only while their request is in flight, so memory is bounded by maxInFlight
+            final Map<Integer,List<String>> pending = new ConcurrentHashMap<Integer,List<String>>();
+            final AtomicLong added = new AtomicLong();
+            final List<PushcrewResponses.ChunkFailure> failures = Collections.synchronizedList(new ArrayList<PushcrewResponses.ChunkFailure>());
+            fanOut(i -> {
+                    List<String> chunk = diff.nextChunk();
+                    if (chunk == null) {
+                        return null;
+                    }
+                    pending.put(i, chunk);
+                    return requests.addSubscribersToSegment(segmentId, chunk);
+                }, response -> PushcrewResponses.parseAddSubscribers(segmentId, response), maxInFlight, new FanOutHandler<Void>() {
+                    public void succeeded(int index, Void result) {
+                        added.addAndGet(pending.remove(index).size());
+                    }
+
+                    public void failed(int index, Exception error) {
+                        failures.add(new PushcrewResponses.ChunkFailure(pending.remove(index), error));
+                    }
+                });
+            return new PushcrewResponses.ImportResponse(diff.existing, added.get(), diff.skipped(), new ArrayList<PushcrewResponses.ChunkFailure>(failures));
+        }
+    }
+
+    private static class RESTAsyncPushcrewClient implements AsyncPushcrewClient {
+        final PushcrewRequests requests;
+        final PushcrewMetrics metrics; // null when not instrumented
+        final PushcrewRateLimiter rateLimiter; // null when not rate limited
+
+        Logger logger = LoggerFactory.getLogger("com.pushcrew.client");
+
+        public RESTAsyncPushcrewClient(String key, String endpoint, OkHttpClient httpClient, PushcrewMetrics m, PushcrewRateLimiter limiter) throws MalformedURLException {
+            requests = new PushcrewRequests(key, endpoint);
+            client = httpClient;
+            metrics = m;
+            rateLimiter = limiter;
+            logger.debug("Initialized async pushcrew client");
         }
 
-        public void addSubscribersToSegment(long segmentId, List<String> subscriberIds) throws IOException, PushcrewResponses.PushcrewException {
-            Map<String,String> params = new HashMap<String,String>();
-            ObjectMapper mapper = new ObjectMapper();
-            Map<String,Object> data = new HashMap<String,Object>();
-            data.put("subscriber_list", subscriberIds);
-            params.put("subscriber_list", mapper.writeValueAsString(data));
+        private final OkHttpClient client;
+
+        /*
+         * Enqueues the request and completes the future from the OkHttp callback. Cancelling
+         * the returned future cancels the underlying call.
+         */
+        private <T> CompletableFuture<T> enqueue(Request request, final PushcrewResponses.ResponseParser<T> parser) {
+            final CompletableFuture<T> future = new CompletableFuture<T>();
+            final Call call = client.newCall(request);
+            final Callback callback = new Callback() {
+                    public void onFailure(Call c, IOException e) {
+                        failed(future, e);
+                    }
 
-            Response response = client.newCall(postRequest("segments/" + segmentId + "/subscribers", params)).execute();
-            JsonNode responseJson = mapper.readTree(response.body().string());
-            if (responseJson.path("status").asText().equals("success")) {
-                return;
+                    public void onResponse(Call c, Response response) {
+                        try {
+                            future.complete(parser.parse(response));
+                        } catch (IOException | PushcrewResponses.PushcrewException | RuntimeException e) {
+                            failed(future, e);
+                        } finally {
+                            response.body().close();
+                        }
+                    }
+                };
+            if (rateLimiter == null) {
+                call.enqueue(callback);
             } else {
-                String message = responseJson.path("message").asText();
-                if (message.equals("Invalid Segment ID")) {
-                    throw new PushcrewResponses.InvalidSegment("Invalid Segment ID " + segmentId);
-                } else if (message.equals("Invalid subscriber IDs present in list.")) {
-                    throw new PushcrewResponses.InvalidSubscribers(message);
-                } else {
-                    throw new PushcrewResponses.PushcrewException(message);
-                }
+                // Wait for the token before enqueueing, so throttled calls don't hold dispatcher slots.
+                rateLimiter.admitAsync(request, () -> {
+                        if (!future.isDone()) {
+                            call.enqueue(callback);
+                        }
+                    }, error -> failed(future, error));
             }
+            future.whenComplete((result, error) -> {
+                    if (future.isCancelled()) {
+                        call.cancel();
+                    }
+                });
+            return future;
+        }
+
+        private void failed(CompletableFuture<?> future, Exception error) {
+            if (metrics != null) {
+                metrics.failed(error);
+            }
+            future.completeExceptionally(error);
+        }
+
+        private static Throwable unwrap(Throwable error) {
+            return (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+        }
+
+        public CompletableFuture<PushcrewResponses.SendResponse> sendToAll(String title, String message, String url) {
+            return enqueue(requests.sendToAll(title, message, url), PushcrewResponses.SendResponse::new);
+        }
+
+        public CompletableFuture<PushcrewResponses.SendResponse> sendToList(String title, String message, String url, List<String> subscribers) {
+            return enqueue(requests.sendToList(title, message, url, subscribers), PushcrewResponses.SendResponse::new);
+        }
+
+        public CompletableFuture<PushcrewResponses.SendResponse> sendToSubscriber(String title, String message, String url, String subscriber) {
+            return sendToList(title, message, url, java.util.Arrays.asList(subscriber));
+        }
+
+        public CompletableFuture<PushcrewResponses.NotificationStatus> checkStatus(PushcrewResponse response) {
+            return checkStatus(response.getRequestId());
+        }
+
+        public CompletableFuture<PushcrewResponses.NotificationStatus> checkStatus(long requestId) {
+            return enqueue(requests.checkStatus(requestId), PushcrewResponses.NotificationStatus::new);
+        }
+
+        public CompletableFuture<Map<Long,PushcrewResponses.NotificationStatus>> checkStatuses(long[] requestIds) {
+            Set<Long> input = new java.util.HashSet<Long>();
+            for (int i=0;i<requestIds.length;i++) {
+                input.add(requestIds[i]);
+            }
+            return checkStatuses(input);
+        }
+
+        public CompletableFuture<Map<Long,PushcrewResponses.NotificationStatus>> checkStatuses(Set<Long> requestIds) {
+            final Map<Long,CompletableFuture<PushcrewResponses.NotificationStatus>> pending = new HashMap<Long,CompletableFuture<PushcrewResponses.NotificationStatus>>();
+            for (Long requestId : requestIds) {
+                pending.put(requestId, checkStatus(requestId));
+            }
+            return CompletableFuture.allOf(pending.values().toArray(new CompletableFuture<?>[pending.size()])).thenApply(ignored -> {
+                    Map<Long,PushcrewResponses.NotificationStatus> result = new HashMap<Long,PushcrewResponses.NotificationStatus>();
+                    for (Map.Entry<Long,CompletableFuture<PushcrewResponses.NotificationStatus>> entry : pending.entrySet()) {
+                        result.put(entry.getKey(), entry.getValue().join());
+                    }
+                    return result;
+                });
+        }
+
+        public CompletableFuture<List<Segment>> getSegments() {
+            return enqueue(requests.getSegments(), PushcrewResponses::parseSegments);
+        }
+
+        public CompletableFuture<PushcrewResponses.CreateSegmentResponse> addSegment(String segmentName) {
+            return enqueue(requests.addSegment(segmentName), PushcrewResponses.CreateSegmentResponse::new);
+        }
+
+        public CompletableFuture<Segment> ensureSegmentExists(final String segmentName) {
+            logger.debug("Ensuring segment {} exists", segmentName);
+            final CompletableFuture<Segment> result = new CompletableFuture<Segment>();
+            enqueue(requests.addSegment(segmentName), PushcrewClientFactory::createdOrNull).whenComplete((created, error) -> {
+                    if (error != null) {
+                        result.completeExceptionally(unwrap(error));
+                    } else if (created != null) {
+                        result.complete(new Segment(created.segment_id, segmentName));
+                    } else {
+                        getSegments().whenComplete((segments, listError) -> {
+                                if (listError != null) {
+                                    result.completeExceptionally(unwrap(listError));
+                                    return;
+                                }
+                                Segment segment = findSegment(segments, segmentName);
+                                if (segment != null) {
+                                    result.complete(segment);
+                                } else {
+                                    result.completeExceptionally(new PushcrewResponses.PushcrewException("Unable to create segment " + segmentName + " or to find an existing segment."));
+                                }
+                            });
+                    }
+                });
+            return result;
+        }
+
+        public CompletableFuture<Void> deleteSegment(long segmentId) {
+            return enqueue(requests.deleteSegment(segmentId), PushcrewResponses::parseDeleteSegment);
+        }
+
+        public CompletableFuture<List<String>> getSubscribers(long segmentId) {
+            return enqueue(requests.getSubscribers(segmentId), PushcrewResponses::parseSubscribers);
+        }
+
+        public CompletableFuture<Void> addSubscribersToSegment(final long segmentId, List<String> subscriberIds) {
+            return enqueue(requests.addSubscribersToSegment(segmentId, subscriberIds), response -> PushcrewResponses.parseAddSubscribers(segmentId, response));
         }
     }
 }
@@ -0,0 +1,160 @@
+package com.pushcrew.client;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Merges sends with the same title, message and url into one send/list call. The first send of a
+ * kind opens a batch; subscribers of later identical sends join it until the window has passed or
+ * maxBatchSize subscribers are in, and then the whole batch goes out in a single request. Every
+ * caller's future completes with the batch's shared SendResponse (or its failure).
+ */
+public class PushcrewCoalescingSender implements Closeable {
+
+    private static class Key {
+        final String title;
+        final String message;
+        final String url;
+
+        Key(String t, String m, String u) {
+            title = t;
+            message = m;
+            url = u;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)o;
+            return title.equals(other.title) && message.equals(other.message) && url.equals(other.url);
+        }
+
+        public int hashCode() {
+            return (title.hashCode() * 31 + message.hashCode()) * 31 + url.hashCode();
+        }
+    }
+
+    private static class Batch {
+        final Key key;
+        final Set<String> subscribers = new LinkedHashSet<String>();
+        final CompletableFuture<PushcrewResponses.SendResponse> result = new CompletableFuture<PushcrewResponses.SendResponse>();
+
+        Batch(Key k) {
+            key = k;
+        }
+    }
+
+    private final AsyncPushcrewClient client;
+    private final long windowMillis;
+    private final int maxBatchSize;
+    private final Map<Key,Batch> open = new HashMap<Key,Batch>(); // guarded by this
+    private final ScheduledExecutorService timer;
+    private boolean closed; // guarded by this
+
+    Logger logger = LoggerFactory.getLogger("com.pushcrew.client");
+
+    public PushcrewCoalescingSender(AsyncPushcrewClient client, long window, TimeUnit unit, int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive, was " + maxBatchSize);
+        }
+        this.client = client;
+        this.windowMillis = unit.toMillis(window);
+        this.maxBatchSize = maxBatchSize;
+        this.timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "pushcrew-coalescer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    }
+
+    public CompletableFuture<PushcrewResponses.SendResponse> sendToSubscriber(String title, String message, String url, String subscriber) {
+        return sendToList(title, message, url, Collections.singletonList(subscriber));
+    }
+
+    public CompletableFuture<PushcrewResponses.SendResponse> sendToList(String title, String message, String url, List<String> subscribers) {
+        Key key = new Key(title, message, url);
+        Batch full = null;
+        CompletableFuture<PushcrewResponses.SendResponse> result;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("The coalescing sender is closed");
+            }
+            Batch batch = open.get(key);
+            if (batch == null) {
+                batch = new Batch(key);
+                open.put(key, batch);
+                final Batch opened = batch;
+                timer.schedule(new Runnable() {
+                        public void run() {
+                            flush(opened);
+                        }
+                    }, windowMillis, TimeUnit.MILLISECONDS);
+            }
+            batch.subscribers.addAll(subscribers);
+            if (batch.subscribers.size() >= maxBatchSize) {
+                open.remove(key);
+                full = batch;
+            }
+            // a dependent future, so one caller cancelling cannot complete the batch for everybody
+            result = batch.result.thenApply(response -> response);
+        }
+        if (full != null) {
+            dispatch(full);
+        }
+        return result;
+    }
+
+    private void flush(Batch batch) {
+        synchronized (this) {
+            if (open.get(batch.key) != batch) {
+                return; // already sent because it filled up
+            }
+            open.remove(batch.key);
+        }
+        dispatch(batch);
+    }
+
+    /* Sends every open batch now, without waiting for its window. */
+    public void flush() {
+        List<Batch> batches;
+        synchronized (this) {
+            batches = new ArrayList<Batch>(open.values());
+            open.clear();
+        }
+        for (Batch batch : batches) {
+            dispatch(batch);
+        }
+    }
+
+    private void dispatch(final Batch batch) {
+        logger.debug("Sending coalesced batch of {} subscribers", batch.subscribers.size());
+        client.sendToList(batch.key.title, batch.key.message, batch.key.url, new ArrayList<String>(batch.subscribers)).whenComplete((response, error) -> {
+                if (error != null) {
+                    batch.result.completeExceptionally(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                } else {
+                    batch.result.complete(response);
+                }
+            });
+    }
+
+    /* Sends whatever is still buffered and stops the window timer. */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        timer.shutdownNow();
+        flush();
+    }
+}
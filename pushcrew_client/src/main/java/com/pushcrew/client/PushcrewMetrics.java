@@ -0,0 +1,97 @@
+package com.pushcrew.client;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.*;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/*
+ * Dropwizard Metrics for a client, all named under the prefix:
+ *
+ *   <prefix>.<operation>.latency        Timer, up to the response headers, including rate limiting and retries
+ *   <prefix>.<operation>.request-bytes  Histogram of request body sizes
+ *   <prefix>.<operation>.response-bytes Histogram of response body sizes, when the length is known
+ *   <prefix>.errors.<ExceptionType>     Counter per exception type surfaced to callers
+ *   <prefix>.requests.in-flight         Gauge
+ *   <prefix>.pool.connections / .pool.idle-connections / .dispatcher.running / .dispatcher.queued
+ *
+ * Operations are the lower-cased PushcrewRetryPolicy.Operation names (send_all, send_list,
+ * check_status, ...). Gauge names must be unique per registry, so give each client its own prefix.
+ */
+public class PushcrewMetrics implements Interceptor {
+    private final MetricRegistry registry;
+    private final String prefix;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public PushcrewMetrics(MetricRegistry registry, String prefix) {
+        this.registry = registry;
+        this.prefix = prefix;
+        registry.register(MetricRegistry.name(prefix, "requests", "in-flight"), new Gauge<Integer>() {
+                public Integer getValue() {
+                    return inFlight.get();
+                }
+            });
+    }
+
+    public PushcrewMetrics(MetricRegistry registry) {
+        this(registry, "pushcrew");
+    }
+
+    void registerGauges(final OkHttpClient client) {
+        registry.register(MetricRegistry.name(prefix, "pool", "connections"), new Gauge<Integer>() {
+                public Integer getValue() {
+                    return client.connectionPool().connectionCount();
+                }
+            });
+        registry.register(MetricRegistry.name(prefix, "pool", "idle-connections"), new Gauge<Integer>() {
+                public Integer getValue() {
+                    return client.connectionPool().idleConnectionCount();
+                }
+            });
+        registry.register(MetricRegistry.name(prefix, "dispatcher", "running"), new Gauge<Integer>() {
+                public Integer getValue() {
+                    return client.dispatcher().runningCallsCount();
+                }
+            });
+        registry.register(MetricRegistry.name(prefix, "dispatcher", "queued"), new Gauge<Integer>() {
+                public Integer getValue() {
+                    return client.dispatcher().queuedCallsCount();
+                }
+            });
+    }
+
+    void failed(Throwable error) {
+        registry.counter(MetricRegistry.name(prefix, "errors", error.getClass().getSimpleName())).inc();
+    }
+
+    private static String operationName(Request request) {
+        PushcrewRetryPolicy.Operation operation = PushcrewRetryPolicy.operationFor(request);
+        return operation == null ? "other" : operation.name().toLowerCase(Locale.ROOT);
+    }
+
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String operation = operationName(request);
+        if (request.body() != null && request.body().contentLength() >= 0) {
+            registry.histogram(MetricRegistry.name(prefix, operation, "request-bytes")).update(request.body().contentLength());
+        }
+        inFlight.incrementAndGet();
+        Timer.Context timer = registry.timer(MetricRegistry.name(prefix, operation, "latency")).time();
+        try {
+            Response response = chain.proceed(request);
+            long responseBytes = response.body().contentLength();
+            if (responseBytes >= 0) {
+                registry.histogram(MetricRegistry.name(prefix, operation, "response-bytes")).update(responseBytes);
+            }
+            return response;
+        } finally {
+            timer.stop();
+            inFlight.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.pushcrew.client;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Takes sends off the caller's thread and makes them survive a restart. enqueueToAll/enqueueToList
+ * append the notification to a local journal and return its sequence number at once; the journal
+ * is fsynced every syncInterval, so that is how much an OS crash can lose. maxInFlight background
+ * threads deliver entries through the given client, and every entry not yet delivered when the
+ * outbox is reopened on the same file is sent again.
+ *
+ * Failures that show the push was not accepted are retried with exponential backoff up to a
+ * minute, for at most maxAttempts attempts: connection failures (the request never left), local
+ * rate limiting, and 429 or 503 answers, which refuse the request rather than fail part way. Any
+ * other failure, such as a read timeout or a 500, 502 or 504 (a gateway may time out after the API
+ * took the push), may come after the push was accepted, so rather than risk sending it twice the
+ * entry is abandoned and reported to the listener, as it is once attempts run out.
+ * A crash between a successful send and its journal record still means that entry is sent twice.
+ */
+public class PushcrewOutbox implements Closeable {
+
+    public interface Listener {
+        void delivered(long sequence, PushcrewResponses.SendResponse response);
+        /* error is the last failure: a PushcrewException, or an IOException whose outcome is unknown. */
+        void abandoned(long sequence, Exception error);
+    }
+
+    private static final long MAX_RETRY_DELAY_MILLIS = 60000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 30; // about 25 minutes of backoff
+    private static final long COMPACT_AFTER_BYTES = 64L * 1024 * 1024;
+
+    private final PushcrewClient client;
+    private final OutboxJournal journal;
+    private final Listener listener;
+    private final int maxAttempts;
+    private final ScheduledExecutorService executor;
+    private volatile boolean closed;
+
+    Logger logger = LoggerFactory.getLogger("com.pushcrew.client");
+
+    public PushcrewOutbox(PushcrewClient client, File journalFile, int maxInFlight, long syncInterval, TimeUnit unit, Listener listener) throws IOException {
+        this(client, journalFile, maxInFlight, syncInterval, unit, DEFAULT_MAX_ATTEMPTS, listener);
+    }
+
+    public PushcrewOutbox(PushcrewClient client, File journalFile, int maxInFlight, long syncInterval, TimeUnit unit, int maxAttempts, Listener listener) throws IOException {
+        if (maxInFlight < 1 || maxAttempts < 1) {
+            throw new IllegalArgumentException("maxInFlight and maxAttempts must be positive");
+        }
+        this.client = client;
+        this.listener = listener;
+        this.maxAttempts = maxAttempts;
+        this.journal = new OutboxJournal(journalFile, COMPACT_AFTER_BYTES);
+        final AtomicInteger threads = new AtomicInteger();
+        ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(maxInFlight, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "pushcrew-outbox-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        pool.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.executor = pool;
+        executor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        journal.sync();
+                    } catch (IOException e) {
+                        logger.error("Unable to sync the outbox journal", e);
+                    }
+                }
+            }, syncInterval, syncInterval, unit);
+        List<OutboxJournal.Entry> recovered = journal.recovered();
+        if (!recovered.isEmpty()) {
+            logger.info("Replaying {} undelivered outbox entries from {}", recovered.size(), journalFile);
+        }
+        for (OutboxJournal.Entry entry : recovered) {
+            schedule(entry, 0, 0);
+        }
+    }
+
+    public long enqueueToAll(String title, String message, String url) throws IOException {
+        return enqueue(title, message, url, null);
+    }
+
+    public long enqueueToList(String title, String message, String url, List<String> subscribers) throws IOException {
+        return enqueue(title, message, url, subscribers);
+    }
+
+    private long enqueue(String title, String message, String url, List<String> subscribers) throws IOException {
+        if (closed) {
+            throw new IOException("The outbox is closed");
+        }
+        OutboxJournal.Entry entry = journal.append(title, message, url, subscribers);
+        schedule(entry, 0, 0);
+        return entry.sequence;
+    }
+
+    /* Entries enqueued or replayed but not yet delivered or abandoned. */
+    public int pending() {
+        return journal.pending();
+    }
+
+    private void schedule(final OutboxJournal.Entry entry, final int attempt, long delayMillis) {
+        if (closed) {
+            return; // still in the journal, so the next open replays it
+        }
+        try {
+            executor.schedule(new Runnable() {
+                    public void run() {
+                        deliver(entry, attempt);
+                    }
+                }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // closed meanwhile; the entry stays in the journal
+        }
+    }
+
+    private void deliver(OutboxJournal.Entry entry, int attempt) {
+        PushcrewResponses.SendResponse response;
+        try {
+            if (entry.subscribers == null) {
+                response = client.sendToAll(entry.title, entry.message, entry.url);
+            } else {
+                response = client.sendToList(entry.title, entry.message, entry.url, entry.subscribers);
+            }
+        } catch (IOException | PushcrewResponses.PushcrewException e) {
+            if (isRetryable(e) && attempt + 1 < maxAttempts) {
+                long delay = Math.min(MAX_RETRY_DELAY_MILLIS, 1000L << Math.min(attempt, 16));
+                logger.warn("Outbox entry {} failed on attempt {}, retrying in {}ms: {}", entry.sequence, attempt + 1, delay, e.toString());
+                schedule(entry, attempt + 1, delay);
+            } else {
+                abandon(entry, attempt, e);
+            }
+            return;
+        }
+        try {
+            journal.delivered(entry.sequence, response.getRequestId());
+        } catch (IOException e) {
+            logger.error("Unable to record delivery of outbox entry " + entry.sequence + " as request " + response.getRequestId(), e);
+        }
+        if (listener != null) {
+            listener.delivered(entry.sequence, response);
+        }
+    }
+
+    /* True when the failure shows the API did not take the push, so sending it again is safe. */
+    private static boolean isRetryable(Exception e) {
+        if (e instanceof PushcrewResponses.InvalidResponse) {
+            int code = ((PushcrewResponses.InvalidResponse)e).statusCode;
+            return code == 429 || code == 503;
+        }
+        if (e instanceof IOException) {
+            return PushcrewRetryPolicy.isConnectionFailure((IOException)e) || e instanceof PushcrewRateLimiter.RateLimitExceeded;
+        }
+        return false;
+    }
+
+    private void abandon(OutboxJournal.Entry entry, int attempt, Exception e) {
+        logger.error("Abandoning outbox entry {} after {} attempts: {}", entry.sequence, attempt + 1, e.toString());
+        try {
+            journal.abandoned(entry.sequence);
+        } catch (IOException journalError) {
+            logger.error("Unable to record abandoned outbox entry " + entry.sequence, journalError);
+        }
+        if (listener != null) {
+            listener.abandoned(entry.sequence, e);
+        }
+    }
+
+    /*
+     * Stops accepting entries, waits briefly for sends already under way and syncs the journal.
+     * Whatever is still pending is replayed the next time an outbox opens this journal.
+     */
+    public void close() throws IOException {
+        closed = true;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor.shutdownNow();
+        journal.close();
+    }
+}
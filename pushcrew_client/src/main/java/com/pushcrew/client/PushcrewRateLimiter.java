@@ -0,0 +1,295 @@
+package com.pushcrew.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.concurrent.locks.ReentrantLock;
+
+import okhttp3.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Client-side token bucket per endpoint, installed as an OkHttp interceptor so it covers both the
+ * blocking and the asynchronous clients. When the API answers 429 or 5xx the endpoint's rate is
+ * halved (down to a sixteenth of the configured rate) and any Retry-After pauses it entirely;
+ * each successful response then wins back a tenth of the configured rate.
+ *
+ * Waiting inside the interceptor would hold an OkHttp dispatcher slot for calls that were enqueued,
+ * so one throttled endpoint could starve the others on the same host. Clients built by
+ * PushcrewClientFactory therefore admit enqueued calls before enqueueing them (admit/admitAsync),
+ * and the interceptor only waits for calls run on the caller's thread and for retried attempts.
+ * A limiter installed on an OkHttpClient by other means still works, without that protection.
+ */
+public class PushcrewRateLimiter implements Interceptor {
+
+    public enum Endpoint {
+        SEND_ALL("send/all"),
+        SEND_LIST("send/list"),
+        CHECK_STATUS("checkstatus/");
+
+        final String path;
+
+        Endpoint(String p) {
+            path = p;
+        }
+    }
+
+    /*
+     * What a request does when its endpoint is out of tokens. BLOCK waits as long as it takes,
+     * FAIL_FAST throws RateLimitExceeded at once. QUEUE is BLOCK with a cap: it waits the same way,
+     * but throws once more than maxQueued requests are already waiting on that endpoint.
+     */
+    public enum Mode {
+        BLOCK, FAIL_FAST, QUEUE
+    }
+
+    /*
+     * Thrown from the interceptor, before anything was sent, so it surfaces as an IOException.
+     */
+    public static class RateLimitExceeded extends IOException {
+        public RateLimitExceeded(String message) {
+            super(message);
+        }
+    }
+
+    private static class Bucket {
+        final double configuredRate;
+        final double minRate;
+        final double burst;
+        double rate;
+        double tokens;
+        long lastRefill;
+        long pausedUntil;
+
+        final ReentrantLock waiters = new ReentrantLock(true);
+        final AtomicInteger queued = new AtomicInteger();
+
+        Bucket(double permitsPerSecond, int b) {
+            configuredRate = permitsPerSecond;
+            minRate = permitsPerSecond / 16;
+            burst = b;
+            rate = permitsPerSecond;
+            tokens = b;
+            lastRefill = System.nanoTime();
+            pausedUntil = lastRefill;
+        }
+
+        private void refill(long now) {
+            tokens = Math.min(burst, tokens + (now - lastRefill) / 1e9 * rate);
+            lastRefill = now;
+        }
+
+        /* Takes a token and returns 0, or returns how many nanoseconds to wait before trying again. */
+        synchronized long tryAcquire(long now) {
+            refill(now);
+            if (now - pausedUntil < 0) {
+                return pausedUntil - now;
+            }
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return Math.max(1, (long)Math.ceil((1 - tokens) / rate * 1e9));
+        }
+
+        synchronized void backOff(long now, long retryAfterNanos) {
+            refill(now);
+            rate = Math.max(minRate, rate / 2);
+            if (retryAfterNanos > 0 && now + retryAfterNanos - pausedUntil > 0) {
+                pausedUntil = now + retryAfterNanos;
+            }
+        }
+
+        synchronized void recover(long now) {
+            if (rate < configuredRate) {
+                refill(now);
+                rate = Math.min(configuredRate, rate + configuredRate / 10);
+            }
+        }
+    }
+
+    private final Mode mode;
+    private final int maxQueued;
+    private final Map<Endpoint,Bucket> buckets = new EnumMap<Endpoint,Bucket>(Endpoint.class);
+    // Requests that already hold a token; weak, so calls cancelled before the interceptor don't leak.
+    private final Set<Request> admitted = Collections.newSetFromMap(Collections.synchronizedMap(new WeakHashMap<Request,Boolean>()));
+
+    private static final ScheduledExecutorService ADMISSION_TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "pushcrew-rate-limiter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    Logger logger = LoggerFactory.getLogger("com.pushcrew.client");
+
+    public PushcrewRateLimiter(Mode mode, int maxQueued) {
+        this.mode = mode;
+        this.maxQueued = maxQueued;
+    }
+
+    public PushcrewRateLimiter(Mode mode) {
+        this(mode, Integer.MAX_VALUE);
+    }
+
+    /*
+     * Allows permitsPerSecond requests to the endpoint on average, with bursts of up to burst.
+     * Endpoints without a limit are not throttled. Configure before handing the limiter to a client.
+     */
+    public PushcrewRateLimiter limit(Endpoint endpoint, double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("permitsPerSecond and burst must be positive");
+        }
+        buckets.put(endpoint, new Bucket(permitsPerSecond, burst));
+        return this;
+    }
+
+    private Bucket bucketFor(Request request) {
+        String path = request.url().encodedPath();
+        for (Map.Entry<Endpoint,Bucket> entry : buckets.entrySet()) {
+            if (path.contains("/" + entry.getKey().path)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Waits on the caller's thread for the request's token before it is enqueued, so the wait does
+     * not hold a dispatcher slot. The first attempt of the call then passes the interceptor freely.
+     */
+    void admit(Request request) throws IOException {
+        Bucket bucket = bucketFor(request);
+        if (bucket != null) {
+            acquire(bucket, request);
+            admitted.add(request);
+        }
+    }
+
+    /*
+     * As admit, without blocking anybody: runs onAdmitted (on a timer thread, or at once) when the
+     * token is taken, or hands onRejected the RateLimitExceeded that FAIL_FAST or QUEUE would throw.
+     * Waiting calls are admitted as tokens free up, not strictly in arrival order.
+     */
+    void admitAsync(Request request, Runnable onAdmitted, Consumer<IOException> onRejected) {
+        Bucket bucket = bucketFor(request);
+        if (bucket == null) {
+            onAdmitted.run();
+            return;
+        }
+        if (mode == Mode.FAIL_FAST) {
+            if (bucket.tryAcquire(System.nanoTime()) > 0) {
+                onRejected.accept(new RateLimitExceeded("Rate limit exceeded for " + request.url().encodedPath()));
+            } else {
+                admitted.add(request);
+                onAdmitted.run();
+            }
+            return;
+        }
+        boolean counted = mode == Mode.QUEUE;
+        if (counted && bucket.queued.incrementAndGet() > maxQueued) {
+            bucket.queued.decrementAndGet();
+            onRejected.accept(new RateLimitExceeded("More than " + maxQueued + " requests already queued for " + request.url().encodedPath()));
+            return;
+        }
+        tryAdmit(bucket, request, onAdmitted, counted);
+    }
+
+    private void tryAdmit(final Bucket bucket, final Request request, final Runnable onAdmitted, final boolean counted) {
+        long wait = bucket.tryAcquire(System.nanoTime());
+        if (wait > 0) {
+            ADMISSION_TIMER.schedule(() -> tryAdmit(bucket, request, onAdmitted, counted), wait, TimeUnit.NANOSECONDS);
+            return;
+        }
+        if (counted) {
+            bucket.queued.decrementAndGet();
+        }
+        admitted.add(request);
+        onAdmitted.run();
+    }
+
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        Bucket bucket = bucketFor(request);
+        if (bucket == null) {
+            return chain.proceed(request);
+        }
+        if (!admitted.remove(request)) {
+            acquire(bucket, request);
+        }
+        Response response = chain.proceed(request);
+        long now = System.nanoTime();
+        if (response.code() == 429 || response.code() >= 500) {
+            long retryAfter = retryAfterNanos(response.header("Retry-After"));
+            logger.debug("Backing off {} after status {}, Retry-After {}ns", request.url(), response.code(), retryAfter);
+            bucket.backOff(now, retryAfter);
+        } else if (response.isSuccessful()) {
+            bucket.recover(now);
+        }
+        return response;
+    }
+
+    private void acquire(Bucket bucket, Request request) throws IOException {
+        // Only take the fast path when nobody is waiting, so QUEUE and BLOCK stay first come, first served.
+        if (!bucket.waiters.isLocked() && bucket.tryAcquire(System.nanoTime()) == 0) {
+            return;
+        }
+        if (mode == Mode.FAIL_FAST) {
+            throw new RateLimitExceeded("Rate limit exceeded for " + request.url().encodedPath());
+        }
+        boolean counted = mode == Mode.QUEUE;
+        if (counted && bucket.queued.incrementAndGet() > maxQueued) {
+            bucket.queued.decrementAndGet();
+            throw new RateLimitExceeded("More than " + maxQueued + " requests already queued for " + request.url().encodedPath());
+        }
+        try {
+            bucket.waiters.lockInterruptibly();
+            try {
+                long wait;
+                while ((wait = bucket.tryAcquire(System.nanoTime())) > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            } finally {
+                bucket.waiters.unlock();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the rate limiter");
+        } finally {
+            if (counted) {
+                bucket.queued.decrementAndGet();
+            }
+        }
+    }
+
+    /* Retry-After is either delta-seconds or an HTTP date; anything else is ignored. */
+    static long retryAfterNanos(String header) {
+        if (header == null) {
+            return 0;
+        }
+        header = header.trim();
+        try {
+            return TimeUnit.SECONDS.toNanos(Math.max(0, Long.parseLong(header)));
+        } catch (NumberFormatException e) {
+            // fall through to the date form
+        }
+        try {
+            long millis = ZonedDateTime.parse(header, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli() - System.currentTimeMillis();
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.pushcrew.client;
+
+import java.net.URL;
+import java.net.MalformedURLException;
+import java.util.*;
+
+import okhttp3.*;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Builds the OkHttp requests for every Pushcrew API call. Shared by the blocking and
+ * the asynchronous clients, which differ only in how the resulting Call is executed.
+ */
+class PushcrewRequests {
+    static final String DEFAULT_ENDPOINT = "https://pushcrew.com/api/v1/";
+
+    final String apiKey;
+    final String restEndpoint;
+    final URL restEndpointURL;
+
+    Logger logger = LoggerFactory.getLogger("com.pushcrew.client");
+
+    PushcrewRequests(String key, String endpoint) throws MalformedURLException {
+        apiKey = key;
+        restEndpoint = endpoint;
+        restEndpointURL = new URL(restEndpoint);
+    }
+
+    private Request.Builder authedReq() {
+        return (new Request.Builder()).addHeader("Authorization", apiKey);
+    }
+
+    private Request getRequest(String path) {
+        return authedReq().url(restEndpoint + path).build();
+    }
+
+    private static final MediaType JsonEncoded = MediaType.parse("application/json; charset=utf-8");
+
+    // The body is only encoded into the log line when debug logging is on.
+    private Request postRequest(String path, StreamingFormBody body) {
+        logger.debug("Creating post request for path {} with body {}", restEndpoint + path, body);
+        return authedReq().url(restEndpoint + path).post(body).build();
+    }
+
+    private Request postJsonRequest(String path, Object obj) {
+        try {
+            String json = PushcrewResponses.MAPPER.writeValueAsString(obj);
+            RequestBody body = RequestBody.create(JsonEncoded, json);
+            logger.debug("Creating post request for path {} with body {}", restEndpoint + path, json);
+            return authedReq().url(restEndpoint + path).post(body).build();
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("this should never occur");
+        }
+    }
+
+    private Request deleteRequest(String path, StreamingFormBody body) {
+        logger.debug("Creating delete request for path {} with body {}", restEndpoint + path, body);
+        return authedReq().url(restEndpoint + path).delete(body).build();
+    }
+
+    Request sendToAll(String title, String message, String url) {
+        logger.debug("Calling sendToAll at {}, title: {}, message: {}, url: {}", restEndpoint, title, message, url);
+        return postRequest("send/all", new StreamingFormBody().add("title", title).add("message", message).add("url", url));
+    }
+
+    Request sendToList(String title, String message, String url, List<String> subscribers) {
+        logger.debug("Calling sendToList at {}, title: {}, message: {}, url: {}, subscriberList: {}", restEndpoint, title, message, url, subscribers);
+        return postRequest("send/list", new StreamingFormBody().add("title", title).add("message", message).add("url", url).addSubscriberList("subscriber_list", subscribers));
+    }
+
+    Request checkStatus(long requestId) {
+        logger.debug("Checking status of request {}", requestId);
+        return getRequest("checkstatus/" + requestId);
+    }
+
+    Request getSegments() {
+        logger.debug("Loading a list of segments for {}", apiKey);
+        return getRequest("segments");
+    }
+
+    Request addSegment(String segmentName) {
+        logger.debug("Creating a segment {}", segmentName);
+        return postRequest("segments", new StreamingFormBody().add("name", segmentName));
+    }
+
+    Request deleteSegment(long segmentId) {
+        logger.debug("Deleting segment {}", segmentId);
+        return deleteRequest("segments/" + segmentId, new StreamingFormBody());
+    }
+
+    Request getSubscribers(long segmentId) {
+        return getRequest("segments/" + segmentId + "/subscribers");
+    }
+
+    Request addSubscribersToSegment(long segmentId, List<String> subscriberIds) {
+        return postRequest("segments/" + segmentId + "/subscribers", new StreamingFormBody().addSubscriberList("subscriber_list", subscriberIds));
+    }
+}
@@ -2,11 +2,14 @@ package com.pushcrew.client;
 
 import okhttp3.*;
 import java.io.IOException;
+import java.util.*;
+import java.util.function.Consumer;
 
-import com.fasterxml.jackson.core.JsonGenerationException;
-import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.JsonNode;
 
 public class PushcrewResponses {
 
@@ -23,8 +26,15 @@ public class PushcrewResponses {
     }
 
     public static class InvalidResponse extends PushcrewException {
+        public final int statusCode; // the HTTP status when that was the problem, else 0
+
         public InvalidResponse(String message) {
+            this(message, 0);
+        }
+
+        public InvalidResponse(String message, int code) {
             super(message);
+            statusCode = code;
         }
     }
 
@@ -46,26 +56,115 @@ public class PushcrewResponses {
         }
     }
 
-    private static class ParsedJsonResponse {
-        public final String json;
-        public final long requestId;
-        public final String status;
-        public final JsonNode rootNode;
-        ParsedJsonResponse(String j) throws IOException {
-            json = j;
-            ObjectMapper mapper = new ObjectMapper();
-            rootNode = mapper.readTree(json);
-            status = rootNode.path("status").asText();
-            requestId = rootNode.path("request_id").asLong();
+    /*
+     * Turns a raw OkHttp response into a result, used by both the blocking and asynchronous clients.
+     */
+    interface ResponseParser<T> {
+        T parse(Response response) throws IOException, PushcrewException;
+    }
+
+    /*
+     * One mapper for the whole library; ObjectMapper and JsonFactory are thread-safe once configured.
+     * Responses are parsed with the streaming API straight from the body's byte stream, keeping
+     * only the fields each response needs instead of buffering the body and building a JsonNode tree.
+     */
+    static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonFactory JSON = MAPPER.getFactory();
+
+    interface FieldReader {
+        /* Called with the parser on the field's value; returns false to have the value skipped. */
+        boolean read(String field, JsonParser parser) throws IOException;
+    }
+
+    /*
+     * Collects the scalar fields of interest, with the same defaults JsonNode.path(...).asText()/asLong() give.
+     */
+    private static class ScalarFields implements FieldReader {
+        private final String[] names;
+        private final String[] text;
+        private final long[] longs;
+
+        ScalarFields(String... n) {
+            names = n;
+            text = new String[n.length];
+            longs = new long[n.length];
+        }
+
+        public boolean read(String field, JsonParser parser) throws IOException {
+            if (!parser.getCurrentToken().isScalarValue()) {
+                return false;
+            }
+            for (int i=0;i<names.length;i++) {
+                if (names[i].equals(field)) {
+                    text[i] = parser.getValueAsString("");
+                    longs[i] = parser.getValueAsLong();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        String text(String name) {
+            for (int i=0;i<names.length;i++) {
+                if (names[i].equals(name)) {
+                    return text[i] == null ? "" : text[i];
+                }
+            }
+            throw new IllegalArgumentException(name);
+        }
+
+        long asLong(String name) {
+            for (int i=0;i<names.length;i++) {
+                if (names[i].equals(name)) {
+                    return longs[i];
+                }
+            }
+            throw new IllegalArgumentException(name);
         }
     }
 
+    static void readFields(Response response, FieldReader reader) throws IOException {
+        ResponseBody body = response.body();
+        try (JsonParser parser = JSON.createParser(body.byteStream())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected a JSON object");
+            }
+            readObject(parser, reader);
+        } finally {
+            body.close();
+        }
+    }
+
+    /* Reads the fields of the object whose START_OBJECT the parser is on, up to its END_OBJECT. */
+    private static void readObject(JsonParser parser, FieldReader reader) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if (!reader.read(field, parser)) {
+                parser.skipChildren();
+            }
+        }
+        if (token != JsonToken.END_OBJECT) {
+            throw new JsonParseException(parser, "Unexpected end of JSON object");
+        }
+    }
+
+    /* Advances to the next array element, returning false on END_ARRAY. */
+    static boolean nextElement(JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == null) {
+            throw new JsonParseException(parser, "Unexpected end of JSON array");
+        }
+        return token != JsonToken.END_ARRAY;
+    }
+
     private static void throwCommonExceptions(Response response) throws PushcrewException, IOException {
         if (response.code() == 401) {
             throw new Unauthorized("This request was unauthorized: " + response.body().string());
         }
         if (response.code() != 200) {
-            throw new InvalidResponse("Status code was " + response.code() + ". Body: " + response.body().string());
+            throw new InvalidResponse("Status code was " + response.code() + ". Body: " + response.body().string(), response.code());
         }
     }
 
@@ -75,19 +174,18 @@ public class PushcrewResponses {
 
         public CreateSegmentResponse(Response response) throws IOException, PushcrewException {
             throwCommonExceptions(response);
-            String body = response.body().string();
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode rootNode = mapper.readTree(body);
-            status = rootNode.path("status").asText();
+            ScalarFields fields = new ScalarFields("status", "message", "segment_id");
+            readFields(response, fields);
+            status = fields.text("status");
             if (status.equals("failure")) {
-                String message = rootNode.path("message").asText();
+                String message = fields.text("message");
                 if (message.equals("A segment with this name already exists.")) {
                     throw new SegmentAlreadyExists(message);
                 } else {
                     throw new PushcrewException(message);
                 }
             }
-            segment_id = rootNode.path("segment_id").asLong();
+            segment_id = fields.asLong("segment_id");
         }
 
         public String toString() {
@@ -106,10 +204,10 @@ public class PushcrewResponses {
 
         public SendResponse(Response response) throws IOException, PushcrewException {
             throwCommonExceptions(response);
-            String body = response.body().string();
-            ParsedJsonResponse parsed = new ParsedJsonResponse(body);
-            requestId = parsed.requestId;
-            status = parsed.status;
+            ScalarFields fields = new ScalarFields("status", "request_id");
+            readFields(response, fields);
+            requestId = fields.asLong("request_id");
+            status = fields.text("status");
         }
 
         public String toString() {
@@ -121,22 +219,200 @@ public class PushcrewResponses {
     }
 
 
+    /*
+     * Result of a bulk status check: every request ID ends up in exactly one of the two maps.
+     */
+    public static class StatusBatch {
+        public final Map<Long,NotificationStatus> statuses;
+        public final Map<Long,Exception> failures;
+
+        public StatusBatch(Map<Long,NotificationStatus> st, Map<Long,Exception> f) {
+            statuses = st;
+            failures = f;
+        }
+
+        public boolean isComplete() {
+            return failures.isEmpty();
+        }
+
+        public String toString() {
+            return "StatusBatch(succeeded=" + statuses.size() + ", failed=" + failures.size() + ")";
+        }
+    }
+
+    public static class ChunkFailure {
+        public final List<String> subscribers;
+        public final Exception error;
+
+        public ChunkFailure(List<String> s, Exception e) {
+            subscribers = s;
+            error = e;
+        }
+
+        public String toString() {
+            return "ChunkFailure(" + subscribers.size() + " subscribers, " + error + ")";
+        }
+    }
+
+    /*
+     * Result of a chunked send: one SendResponse per chunk that was accepted, in chunk order,
+     * and the subscribers of every chunk that failed so they can be retried.
+     */
+    public static class BulkSendResponse {
+        public final List<SendResponse> responses;
+        public final List<ChunkFailure> failures;
+
+        public BulkSendResponse(List<SendResponse> r, List<ChunkFailure> f) {
+            responses = r;
+            failures = f;
+        }
+
+        public long[] getRequestIds() {
+            long[] result = new long[responses.size()];
+            for (int i=0;i<result.length;i++) {
+                result[i] = responses.get(i).getRequestId();
+            }
+            return result;
+        }
+
+        public boolean isComplete() {
+            return failures.isEmpty();
+        }
+
+        public String toString() {
+            return "BulkSendResponse(sent=" + responses.size() + ", failed=" + failures.size() + ")";
+        }
+    }
+
+    /*
+     * Result of a segment import: how many members the segment already had, how many input IDs
+     * were posted successfully, how many were skipped as existing members or repeats, and the
+     * chunks that failed.
+     */
+    public static class ImportResponse {
+        public final long existing;
+        public final long added;
+        public final long skipped;
+        public final List<ChunkFailure> failures;
+
+        public ImportResponse(long e, long a, long s, List<ChunkFailure> f) {
+            existing = e;
+            added = a;
+            skipped = s;
+            failures = f;
+        }
+
+        public boolean isComplete() {
+            return failures.isEmpty();
+        }
+
+        public String toString() {
+            return "ImportResponse(existing=" + existing + ", added=" + added + ", skipped=" + skipped + ", failed=" + failures.size() + ")";
+        }
+    }
+
     public static class NotificationStatus {
         public final long countDelivered;
         public final long countClicked;
 
         public NotificationStatus(Response response) throws IOException, PushcrewException {
             throwCommonExceptions(response);
-            String body = response.body().string();
+            ScalarFields fields = new ScalarFields("count_delivered", "count_clicked");
+            readFields(response, fields);
 
-            JsonNode rootNode = (new ObjectMapper()).readTree(body);
-
-            countDelivered = rootNode.path("count_delivered").asLong();
-            countClicked = rootNode.path("count_clicked").asLong();
+            countDelivered = fields.asLong("count_delivered");
+            countClicked = fields.asLong("count_clicked");
         }
 
         public String toString() {
             return "NotificationStatus(delivered=" + countDelivered + ", clicked=" + countClicked + ")";
         }
     }
+
+    static List<Segment> parseSegments(Response response) throws IOException, PushcrewException {
+        final ScalarFields fields = new ScalarFields("status");
+        final List<Segment> result = new ArrayList<Segment>();
+        readFields(response, (field, parser) -> {
+                if (!field.equals("segment_list") || parser.getCurrentToken() != JsonToken.START_ARRAY) {
+                    return fields.read(field, parser);
+                }
+                while (nextElement(parser)) {
+                    if (parser.getCurrentToken() == JsonToken.START_OBJECT) {
+                        ScalarFields jsonSegment = new ScalarFields("id", "name");
+                        readObject(parser, jsonSegment);
+                        result.add(new Segment(jsonSegment.asLong("id"), jsonSegment.text("name")));
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                return true;
+            });
+        String status = fields.text("status");
+        if (!status.equals("success")) {
+            throw new InvalidResponse(status);
+        }
+        return result;
+    }
+
+    static List<String> parseSubscribers(Response response) throws IOException, PushcrewException {
+        List<String> result = new ArrayList<String>();
+        parseSubscribers(response, result::add);
+        return result;
+    }
+
+    /*
+     * Hands each subscriber to the consumer as the parser reaches it, so memory use does not grow
+     * with the segment. The status is only known once the whole body is read, so on failure the
+     * consumer may already have seen some IDs before InvalidResponse is thrown.
+     */
+    static long parseSubscribers(Response response, final Consumer<String> consumer) throws IOException, PushcrewException {
+        final ScalarFields fields = new ScalarFields("status");
+        final long[] count = new long[1];
+        readFields(response, (field, parser) -> {
+                if (!field.equals("subscriber_list") || parser.getCurrentToken() != JsonToken.START_ARRAY) {
+                    return fields.read(field, parser);
+                }
+                while (nextElement(parser)) {
+                    if (parser.getCurrentToken().isScalarValue()) {
+                        consumer.accept(parser.getValueAsString(""));
+                        count[0]++;
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                return true;
+            });
+        String status = fields.text("status");
+        if (!status.equals("success")) {
+            throw new InvalidResponse(status);
+        }
+        return count[0];
+    }
+
+    static Void parseDeleteSegment(Response response) throws IOException, PushcrewException {
+        ScalarFields fields = new ScalarFields("status", "message");
+        readFields(response, fields);
+        if (fields.text("status").equals("success")) {
+            return null;
+        } else {
+            throw new PushcrewException(fields.text("message"));
+        }
+    }
+
+    static Void parseAddSubscribers(long segmentId, Response response) throws IOException, PushcrewException {
+        ScalarFields fields = new ScalarFields("status", "message");
+        readFields(response, fields);
+        if (fields.text("status").equals("success")) {
+            return null;
+        } else {
+            String message = fields.text("message");
+            if (message.equals("Invalid Segment ID")) {
+                throw new InvalidSegment("Invalid Segment ID " + segmentId);
+            } else if (message.equals("Invalid subscriber IDs present in list.")) {
+                throw new InvalidSubscribers(message);
+            } else {
+                throw new PushcrewException(message);
+            }
+        }
+    }
 }
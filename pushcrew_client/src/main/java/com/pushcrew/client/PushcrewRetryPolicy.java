@@ -0,0 +1,152 @@
+package com.pushcrew.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Retries failed API calls with exponential backoff and full jitter, installed as an OkHttp
+ * interceptor. Each operation has its own Rule. By default the reads (checkstatus, segments,
+ * subscribers) retry on any IOException and on 429/5xx, while everything that writes only
+ * retries when the connection could not be made at all, so a push is never delivered twice.
+ */
+public class PushcrewRetryPolicy implements Interceptor {
+
+    public enum Operation {
+        SEND_ALL, SEND_LIST, CHECK_STATUS, GET_SEGMENTS, ADD_SEGMENT, DELETE_SEGMENT, GET_SUBSCRIBERS, ADD_SUBSCRIBERS
+    }
+
+    public static class Rule {
+        public final int maxAttempts;
+        public final long baseDelayMillis;
+        public final long maxDelayMillis;
+        public final boolean retryAnyIOException;
+        public final Set<Integer> retryableStatuses;
+
+        /*
+         * retryAnyIOException=false restricts retries to failures where the request never left,
+         * like a refused connection or an unknown host; statuses are only retried when listed.
+         */
+        public Rule(int maxAttempts, long baseDelay, long maxDelay, TimeUnit unit, boolean retryAnyIOException, Integer... retryableStatuses) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts must be at least 1, was " + maxAttempts);
+            }
+            this.maxAttempts = maxAttempts;
+            this.baseDelayMillis = unit.toMillis(baseDelay);
+            this.maxDelayMillis = unit.toMillis(maxDelay);
+            this.retryAnyIOException = retryAnyIOException;
+            this.retryableStatuses = Collections.unmodifiableSet(new HashSet<Integer>(Arrays.asList(retryableStatuses)));
+        }
+
+        public static Rule idempotent(int maxAttempts) {
+            return new Rule(maxAttempts, 200, 5000, TimeUnit.MILLISECONDS, true, 429, 500, 502, 503, 504);
+        }
+
+        public static Rule connectionFailuresOnly(int maxAttempts) {
+            return new Rule(maxAttempts, 200, 5000, TimeUnit.MILLISECONDS, false);
+        }
+
+        public static final Rule NEVER = new Rule(1, 0, 0, TimeUnit.MILLISECONDS, false);
+    }
+
+    private final Map<Operation,Rule> rules = new EnumMap<Operation,Rule>(Operation.class);
+
+    Logger logger = LoggerFactory.getLogger("com.pushcrew.client");
+
+    public PushcrewRetryPolicy() {
+        for (Operation operation : Operation.values()) {
+            rules.put(operation, Rule.connectionFailuresOnly(3));
+        }
+        rules.put(Operation.CHECK_STATUS, Rule.idempotent(3));
+        rules.put(Operation.GET_SEGMENTS, Rule.idempotent(3));
+        rules.put(Operation.GET_SUBSCRIBERS, Rule.idempotent(3));
+    }
+
+    /*
+     * Replaces the rule for one operation. Configure before handing the policy to a client.
+     */
+    public PushcrewRetryPolicy rule(Operation operation, Rule rule) {
+        rules.put(operation, rule);
+        return this;
+    }
+
+    static Operation operationFor(Request request) {
+        String path = request.url().encodedPath();
+        String method = request.method();
+        if (path.contains("/send/all")) {
+            return Operation.SEND_ALL;
+        } else if (path.contains("/send/list")) {
+            return Operation.SEND_LIST;
+        } else if (path.contains("/checkstatus/")) {
+            return Operation.CHECK_STATUS;
+        } else if (path.endsWith("/subscribers")) {
+            return method.equals("GET") ? Operation.GET_SUBSCRIBERS : Operation.ADD_SUBSCRIBERS;
+        } else if (path.endsWith("/segments")) {
+            return method.equals("GET") ? Operation.GET_SEGMENTS : Operation.ADD_SEGMENT;
+        } else if (path.contains("/segments/") && method.equals("DELETE")) {
+            return Operation.DELETE_SEGMENT;
+        }
+        return null;
+    }
+
+    /* Failures that guarantee the request never reached the server. */
+    static boolean isConnectionFailure(IOException e) {
+        return e instanceof ConnectException || e instanceof UnknownHostException || e instanceof NoRouteToHostException;
+    }
+
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        Operation operation = operationFor(request);
+        Rule rule = operation == null ? Rule.NEVER : rules.get(operation);
+        for (int attempt=1;;attempt++) {
+            long delay;
+            try {
+                Response response = chain.proceed(request);
+                if (attempt >= rule.maxAttempts || !rule.retryableStatuses.contains(response.code())) {
+                    return response;
+                }
+                delay = backoffMillis(rule, attempt);
+                long retryAfter = TimeUnit.NANOSECONDS.toMillis(PushcrewRateLimiter.retryAfterNanos(response.header("Retry-After")));
+                if (retryAfter > rule.maxDelayMillis) {
+                    return response;
+                }
+                delay = Math.max(delay, retryAfter);
+                logger.debug("Retrying {} {} in {}ms after status {} (attempt {})", operation, request.url(), delay, response.code(), attempt);
+                response.body().close();
+            } catch (PushcrewRateLimiter.RateLimitExceeded e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= rule.maxAttempts || !(rule.retryAnyIOException || isConnectionFailure(e))) {
+                    throw e;
+                }
+                delay = backoffMillis(rule, attempt);
+                logger.debug("Retrying {} {} in {}ms after {} (attempt {})", operation, request.url(), delay, e, attempt);
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to retry " + request.url());
+            }
+        }
+    }
+
+    /* Full jitter: uniform in [0, min(maxDelay, baseDelay * 2^(attempt-1))]. */
+    private static long backoffMillis(Rule rule, int attempt) {
+        long ceiling = rule.baseDelayMillis << Math.min(attempt - 1, 30);
+        if (ceiling > rule.maxDelayMillis || ceiling < 0) {
+            ceiling = rule.maxDelayMillis;
+        }
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+}
@@ -0,0 +1,278 @@
+package com.pushcrew.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Polls checkstatus for tracked requests on an adaptive schedule. A request is polled every
+ * minInterval while its counts keep changing; each poll that sees no change doubles its interval,
+ * and once the interval would pass maxInterval the request is considered settled and dropped.
+ * A campaign therefore costs a handful of polls after its last change, however long it is tracked.
+ * Due requests are checked together through checkStatusesPartial, with at most maxInFlight
+ * requests outstanding. A failed check backs off the same way, so a request whose checks keep
+ * failing is given up on, and reported as failed, after the same handful of polls.
+ */
+public class PushcrewStatusTracker implements Closeable {
+
+    /* Called on the tracker's thread; keep it short. */
+    public interface Listener {
+        void changed(long requestId, PushcrewResponses.NotificationStatus status);
+        void settled(long requestId, PushcrewResponses.NotificationStatus status);
+        /* The request's checks kept failing; status is the last one seen, or null. */
+        void failed(long requestId, PushcrewResponses.NotificationStatus status, Exception error);
+    }
+
+    private static class Tracked {
+        PushcrewResponses.NotificationStatus latest;
+        long intervalMillis;
+        long nextPollAt;
+    }
+
+    /*
+     * Open-addressing long -> value map, so tracking thousands of requests costs no boxed keys or
+     * entry objects. Not thread-safe; values are never null.
+     */
+    static class LongMap<V> {
+        private long[] keys = new long[16];
+        private Object[] values = new Object[16];
+        private int size;
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int)(h ^ (h >>> 32));
+        }
+
+        private int slot(long key) {
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (values[i] != null && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        @SuppressWarnings("unchecked")
+        V get(long key) {
+            return (V)values[slot(key)];
+        }
+
+        void put(long key, V value) {
+            int i = slot(key);
+            if (values[i] == null) {
+                keys[i] = key;
+                size++;
+            }
+            values[i] = value;
+            if (size * 4 >= keys.length * 3) {
+                long[] oldKeys = keys;
+                Object[] oldValues = values;
+                keys = new long[oldKeys.length * 2];
+                values = new Object[oldValues.length * 2];
+                for (int j=0;j<oldKeys.length;j++) {
+                    if (oldValues[j] != null) {
+                        int k = slot(oldKeys[j]);
+                        keys[k] = oldKeys[j];
+                        values[k] = oldValues[j];
+                    }
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        V remove(long key) {
+            int mask = keys.length - 1;
+            int i = slot(key);
+            V old = (V)values[i];
+            if (old == null) {
+                return null;
+            }
+            values[i] = null;
+            size--;
+            // Shift later members of the probe run back so lookups never stop at the hole early.
+            for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+                int home = mix(keys[j]) & mask;
+                boolean homeInGap = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+                if (!homeInGap) {
+                    keys[i] = keys[j];
+                    values[i] = values[j];
+                    values[j] = null;
+                    i = j;
+                }
+            }
+            return old;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long[] keys() {
+            long[] result = new long[size];
+            int n = 0;
+            for (int i=0;i<keys.length;i++) {
+                if (values[i] != null) {
+                    result[n++] = keys[i];
+                }
+            }
+            return result;
+        }
+    }
+
+    private final PushcrewClient client;
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final int maxInFlight;
+    private final Listener listener;
+    private final LongMap<Tracked> tracked = new LongMap<Tracked>(); // guarded by this
+    private final ScheduledExecutorService scheduler;
+
+    Logger logger = LoggerFactory.getLogger("com.pushcrew.client");
+
+    public PushcrewStatusTracker(PushcrewClient client, long minInterval, long maxInterval, TimeUnit unit, int maxInFlight, Listener listener) {
+        if (minInterval <= 0 || maxInterval < minInterval) {
+            throw new IllegalArgumentException("Need 0 < minInterval <= maxInterval");
+        }
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive, was " + maxInFlight);
+        }
+        this.client = client;
+        this.minIntervalMillis = unit.toMillis(minInterval);
+        this.maxIntervalMillis = unit.toMillis(maxInterval);
+        this.maxInFlight = maxInFlight;
+        this.listener = listener;
+        this.scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "pushcrew-status-tracker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        poll();
+                    } catch (IOException | RuntimeException e) {
+                        logger.warn("Status poll failed", e);
+                    }
+                }
+            }, minIntervalMillis, minIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    public void track(PushcrewResponse response) {
+        track(response.getRequestId());
+    }
+
+    public synchronized void track(long requestId) {
+        if (tracked.get(requestId) == null) {
+            Tracked t = new Tracked();
+            t.intervalMillis = minIntervalMillis;
+            t.nextPollAt = now();
+            tracked.put(requestId, t);
+        }
+    }
+
+    public synchronized void untrack(long requestId) {
+        tracked.remove(requestId);
+    }
+
+    /* The last status seen for a tracked request, or null before its first poll. */
+    public synchronized PushcrewResponses.NotificationStatus latest(long requestId) {
+        Tracked t = tracked.get(requestId);
+        return t == null ? null : t.latest;
+    }
+
+    public synchronized int tracked() {
+        return tracked.size();
+    }
+
+    private static boolean sameCounts(PushcrewResponses.NotificationStatus a, PushcrewResponses.NotificationStatus b) {
+        return a != null && a.countDelivered == b.countDelivered && a.countClicked == b.countClicked;
+    }
+
+    void poll() throws IOException {
+        long[] due;
+        synchronized (this) {
+            long now = now();
+            long[] ids = tracked.keys();
+            int n = 0;
+            for (long id : ids) {
+                if (tracked.get(id).nextPollAt <= now) {
+                    ids[n++] = id;
+                }
+            }
+            due = Arrays.copyOf(ids, n);
+        }
+        if (due.length == 0) {
+            return;
+        }
+        PushcrewResponses.StatusBatch batch = client.checkStatusesPartial(due, maxInFlight);
+
+        List<Long> changed = new ArrayList<Long>();
+        List<Long> settled = new ArrayList<Long>();
+        List<PushcrewResponses.NotificationStatus> changedStatus = new ArrayList<PushcrewResponses.NotificationStatus>();
+        List<PushcrewResponses.NotificationStatus> settledStatus = new ArrayList<PushcrewResponses.NotificationStatus>();
+        List<Long> failed = new ArrayList<Long>();
+        List<PushcrewResponses.NotificationStatus> failedStatus = new ArrayList<PushcrewResponses.NotificationStatus>();
+        synchronized (this) {
+            long now = now();
+            for (long id : due) {
+                Tracked t = tracked.get(id);
+                if (t == null) {
+                    continue; // untracked while polling
+                }
+                PushcrewResponses.NotificationStatus status = batch.statuses.get(id);
+                if (status == null && t.intervalMillis * 2 > maxIntervalMillis) {
+                    tracked.remove(id);
+                    failed.add(id);
+                    failedStatus.add(t.latest);
+                } else if (status == null) {
+                    t.intervalMillis *= 2;
+                    t.nextPollAt = now + t.intervalMillis;
+                } else if (!sameCounts(t.latest, status)) {
+                    t.latest = status;
+                    t.intervalMillis = minIntervalMillis;
+                    t.nextPollAt = now + t.intervalMillis;
+                    changed.add(id);
+                    changedStatus.add(status);
+                } else if (t.intervalMillis * 2 > maxIntervalMillis) {
+                    tracked.remove(id);
+                    settled.add(id);
+                    settledStatus.add(status);
+                } else {
+                    t.intervalMillis *= 2;
+                    t.nextPollAt = now + t.intervalMillis;
+                }
+            }
+        }
+        if (!batch.failures.isEmpty()) {
+            logger.debug("{} status checks failed, {} of them for the last time", batch.failures.size(), failed.size());
+        }
+        if (listener != null) {
+            for (int i=0;i<changed.size();i++) {
+                listener.changed(changed.get(i), changedStatus.get(i));
+            }
+            for (int i=0;i<settled.size();i++) {
+                listener.settled(settled.get(i), settledStatus.get(i));
+            }
+            for (int i=0;i<failed.size();i++) {
+                listener.failed(failed.get(i), failedStatus.get(i), batch.failures.get(failed.get(i)));
+            }
+        }
+    }
+
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,117 @@
+package com.pushcrew.client;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * In-memory index of segments by name and by id, used by the REST client to answer
+ * ensureSegmentExists and findSegment without a round trip. Entries expire after the
+ * TTL and the least recently used ones are dropped beyond maxSize. Thread-safe.
+ */
+public class SegmentCache {
+    private static class Entry {
+        final Segment segment;
+        final long expiresAt;
+
+        Entry(Segment s, long e) {
+            segment = s;
+            expiresAt = e;
+        }
+    }
+
+    private final long ttlNanos;
+    private final int maxSize;
+    private final Map<Long,Entry> byId = new HashMap<Long,Entry>();
+    private final LinkedHashMap<String,Entry> byName;
+
+    public SegmentCache(long ttl, TimeUnit unit, int maxSize) {
+        if (ttl <= 0 || maxSize < 1) {
+            throw new IllegalArgumentException("ttl and maxSize must be positive");
+        }
+        this.ttlNanos = unit.toNanos(ttl);
+        this.maxSize = maxSize;
+        this.byName = new LinkedHashMap<String,Entry>(16, 0.75f, true) {
+            // SegmentCache.Entry spelled out: a bare Entry here would be LinkedHashMap's own Entry
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,SegmentCache.Entry> eldest) {
+                if (size() > SegmentCache.this.maxSize) {
+                    byId.remove(eldest.getValue().segment.id);
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized Segment get(String name) {
+        Entry entry = byName.get(name);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt - System.nanoTime() <= 0) {
+            remove(entry);
+            return null;
+        }
+        return entry.segment;
+    }
+
+    public synchronized Segment get(long segmentId) {
+        Entry entry = byId.get(segmentId);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt - System.nanoTime() <= 0) {
+            remove(entry);
+            return null;
+        }
+        return entry.segment;
+    }
+
+    public synchronized void put(Segment segment) {
+        Entry previous = byName.get(segment.name);
+        if (previous != null) {
+            remove(previous);
+        }
+        previous = byId.get(segment.id);
+        if (previous != null) {
+            remove(previous);
+        }
+        Entry entry = new Entry(segment, System.nanoTime() + ttlNanos);
+        byId.put(segment.id, entry);
+        byName.put(segment.name, entry);
+    }
+
+    public synchronized void putAll(List<Segment> segments) {
+        for (Segment segment : segments) {
+            put(segment);
+        }
+    }
+
+    public synchronized void invalidate(String name) {
+        Entry entry = byName.get(name);
+        if (entry != null) {
+            remove(entry);
+        }
+    }
+
+    public synchronized void invalidate(long segmentId) {
+        Entry entry = byId.get(segmentId);
+        if (entry != null) {
+            remove(entry);
+        }
+    }
+
+    public synchronized void clear() {
+        byName.clear();
+        byId.clear();
+    }
+
+    public synchronized int size() {
+        return byName.size();
+    }
+
+    private void remove(Entry entry) {
+        byName.remove(entry.segment.name);
+        byId.remove(entry.segment.id);
+    }
+}
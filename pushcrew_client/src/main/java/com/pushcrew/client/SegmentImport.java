@@ -0,0 +1,90 @@
+package com.pushcrew.client;
+
+import java.io.IOException;
+import java.util.*;
+
+/*
+ * Diffing state behind importSubscribersToSegment. The segment's current members are held as 64-bit
+ * fingerprints in an open-addressing set, 8-16 bytes a member instead of a String each, and input
+ * IDs whose fingerprint is already there (as a member or earlier in the input) are skipped. Two IDs
+ * sharing a fingerprint is vanishingly unlikely even for millions of members, and would only mean
+ * one new ID is not posted. Not thread-safe.
+ */
+class SegmentImport {
+    private final Iterator<String> input;
+    private final int chunkSize;
+    private long[] table = new long[1024]; // 0 marks a free slot
+    private int size;
+    private long skipped;
+    final long existing;
+
+    SegmentImport(PushcrewClient client, long segmentId, Iterator<String> subscriberIds, int chunkSize) throws IOException, PushcrewResponses.PushcrewException {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive, was " + chunkSize);
+        }
+        this.input = subscriberIds;
+        this.chunkSize = chunkSize;
+        this.existing = client.forEachSubscriber(segmentId, subscriber -> add(fingerprint(subscriber)));
+    }
+
+    static long fingerprint(String subscriber) {
+        long h = 0xcbf29ce484222325L; // FNV-1a over the chars
+        for (int i=0;i<subscriber.length();i++) {
+            h ^= subscriber.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        // MurmurHash3's finalizer, so the low bits used for the slot are well mixed
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    private boolean add(long fingerprint) {
+        int mask = table.length - 1;
+        int i = (int)fingerprint & mask;
+        while (table[i] != 0) {
+            if (table[i] == fingerprint) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = fingerprint;
+        size++;
+        if (size * 4 >= table.length * 3) {
+            long[] old = table;
+            table = new long[old.length * 2];
+            mask = table.length - 1;
+            for (long f : old) {
+                if (f != 0) {
+                    int j = (int)f & mask;
+                    while (table[j] != 0) {
+                        j = (j + 1) & mask;
+                    }
+                    table[j] = f;
+                }
+            }
+        }
+        return true;
+    }
+
+    /* The next chunk of up to chunkSize IDs that are not yet members, or null once the input is exhausted. */
+    List<String> nextChunk() {
+        List<String> chunk = new ArrayList<String>(Math.min(chunkSize, 1024));
+        while (chunk.size() < chunkSize && input.hasNext()) {
+            String subscriber = input.next();
+            if (add(fingerprint(subscriber))) {
+                chunk.add(subscriber);
+            } else {
+                skipped++;
+            }
+        }
+        return chunk.isEmpty() ? null : chunk;
+    }
+
+    long skipped() {
+        return skipped;
+    }
+}
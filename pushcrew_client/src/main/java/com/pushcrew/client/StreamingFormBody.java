@@ -0,0 +1,160 @@
+package com.pushcrew.client;
+
+import java.io.IOException;
+import java.util.*;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+
+/*
+ * An application/x-www-form-urlencoded body that percent-encodes its fields straight into the sink,
+ * encoding as URLEncoder does (alphanumerics and ".-*_" kept, space as '+', everything else as
+ * UTF-8 %XX). Subscriber list fields are rendered as {"subscriber_list":[...]} JSON on the fly, so
+ * a send/list body is never built up as a String. The content length is found by a counting pass
+ * over the same code, which allocates nothing. Each add copies only references, so callers may
+ * reuse their lists once the request is built.
+ */
+class StreamingFormBody extends RequestBody {
+    private static final MediaType FORM_ENCODED = MediaType.parse("application/x-www-form-urlencoded; charset=utf-8");
+    private static final byte[] HEX = {'0','1','2','3','4','5','6','7','8','9','A','B','C','D','E','F'};
+
+    private final List<String> names = new ArrayList<String>();
+    private final List<Object> values = new ArrayList<Object>(); // a String, or a String[] subscriber list
+    private long contentLength = -1;
+
+    StreamingFormBody add(String name, String value) {
+        names.add(name);
+        values.add(value);
+        return this;
+    }
+
+    StreamingFormBody addSubscriberList(String name, List<String> subscribers) {
+        names.add(name);
+        values.add(subscribers.toArray(new String[subscribers.size()]));
+        return this;
+    }
+
+    public MediaType contentType() {
+        return FORM_ENCODED;
+    }
+
+    public long contentLength() throws IOException {
+        if (contentLength < 0) {
+            contentLength = write(null);
+        }
+        return contentLength;
+    }
+
+    public void writeTo(BufferedSink sink) throws IOException {
+        write(sink);
+    }
+
+    /* Writes the body to sink, or only counts its bytes when sink is null. */
+    private long write(BufferedSink sink) throws IOException {
+        long length = 0;
+        for (int i=0;i<names.size();i++) {
+            if (i > 0) {
+                length += raw('&', sink);
+            }
+            length += encode(names.get(i), false, sink);
+            length += raw('=', sink);
+            Object value = values.get(i);
+            if (value instanceof String) {
+                length += encode((String)value, false, sink);
+            } else {
+                length += encode("{\"subscriber_list\":[", false, sink);
+                String[] subscribers = (String[])value;
+                for (int j=0;j<subscribers.length;j++) {
+                    if (j > 0) {
+                        length += encode(",", false, sink);
+                    }
+                    length += encode("\"", false, sink);
+                    length += encode(subscribers[j], true, sink);
+                    length += encode("\"", false, sink);
+                }
+                length += encode("]}", false, sink);
+            }
+        }
+        return length;
+    }
+
+    private static long raw(int b, BufferedSink sink) throws IOException {
+        if (sink != null) {
+            sink.writeByte(b);
+        }
+        return 1;
+    }
+
+    /* Percent-encodes s, first escaping it as the inside of a JSON string when json is set. */
+    private static long encode(String s, boolean json, BufferedSink sink) throws IOException {
+        long length = 0;
+        for (int i=0;i<s.length();i++) {
+            char c = s.charAt(i);
+            int codePoint = c;
+            if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                codePoint = Character.toCodePoint(c, s.charAt(++i));
+            } else if (Character.isSurrogate(c)) {
+                codePoint = '?'; // unpaired, as URLEncoder replaces it
+            }
+            if (json && (codePoint == '"' || codePoint == '\\')) {
+                length += encodeCodePoint('\\', sink);
+            } else if (json && codePoint < 0x20) {
+                length += encodeCodePoint('\\', sink);
+                switch (codePoint) {
+                case '\b': codePoint = 'b'; break;
+                case '\t': codePoint = 't'; break;
+                case '\n': codePoint = 'n'; break;
+                case '\f': codePoint = 'f'; break;
+                case '\r': codePoint = 'r'; break;
+                default:
+                    length += encodeCodePoint('u', sink) + encodeCodePoint('0', sink) + encodeCodePoint('0', sink);
+                    length += encodeCodePoint(HEX[codePoint >> 4], sink);
+                    codePoint = HEX[codePoint & 0xf];
+                }
+            }
+            length += encodeCodePoint(codePoint, sink);
+        }
+        return length;
+    }
+
+    private static long encodeCodePoint(int c, BufferedSink sink) throws IOException {
+        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-' || c == '*' || c == '_') {
+            return raw(c, sink);
+        }
+        if (c == ' ') {
+            return raw('+', sink);
+        }
+        if (c < 0x80) {
+            return percent(c, sink);
+        }
+        if (c < 0x800) {
+            return percent(0xc0 | (c >> 6), sink) + percent(0x80 | (c & 0x3f), sink);
+        }
+        if (c < 0x10000) {
+            return percent(0xe0 | (c >> 12), sink) + percent(0x80 | ((c >> 6) & 0x3f), sink) + percent(0x80 | (c & 0x3f), sink);
+        }
+        return percent(0xf0 | (c >> 18), sink) + percent(0x80 | ((c >> 12) & 0x3f), sink) + percent(0x80 | ((c >> 6) & 0x3f), sink) + percent(0x80 | (c & 0x3f), sink);
+    }
+
+    private static long percent(int b, BufferedSink sink) throws IOException {
+        if (sink != null) {
+            sink.writeByte('%');
+            sink.writeByte(HEX[b >> 4]);
+            sink.writeByte(HEX[b & 0xf]);
+        }
+        return 3;
+    }
+
+    /* The encoded body, built only when something (such as a debug log line) asks for it. */
+    public String toString() {
+        Buffer buffer = new Buffer();
+        try {
+            write(buffer);
+        } catch (IOException e) {
+            throw new IllegalStateException("Writing to a Buffer cannot fail", e);
+        }
+        return buffer.readUtf8();
+    }
+}
@@ -0,0 +1,60 @@
+package com.pushcrew.client
+
+import scala.collection.mutable
+import scala.util.Random
+
+import org.scalacheck.{Arbitrary, Gen}
+import org.specs2.ScalaCheck
+import org.specs2.mutable.Specification
+
+class LongMapSpec extends Specification with ScalaCheck {
+
+  // A small key range keeps probe runs long and collisions frequent; the odd large key spreads the rest.
+  val key: Gen[Long] = Gen.frequency((9, Gen.choose(0L, 40L)), (1, Gen.choose(Long.MinValue, Long.MaxValue)))
+  val op: Gen[(Boolean, Long)] = for { put <- Gen.frequency((3, true), (2, false)); k <- key } yield (put, k)
+  implicit val arbOps: Arbitrary[List[(Boolean, Long)]] = Arbitrary(Gen.listOf(op))
+
+  def sameContents(map: PushcrewStatusTracker.LongMap[String], model: mutable.Map[Long, String]) = {
+    map.size() must_== model.size
+    map.keys().toSet must_== model.keySet.toSet
+    model.forall({ case (k, v) => map.get(k) == v }) must beTrue
+  }
+
+  "LongMap" should {
+    "behave as a HashMap under any mix of puts and removes" in prop { (script: List[(Boolean, Long)]) =>
+      val map = new PushcrewStatusTracker.LongMap[String]()
+      val model = mutable.HashMap[Long, String]()
+      for (((put, k), i) <- script.zipWithIndex) {
+        if (put) {
+          map.put(k, "v" + i)
+          model(k) = "v" + i
+        } else {
+          map.remove(k) must_== model.remove(k).orNull
+        }
+      }
+      sameContents(map, model)
+    }
+
+    "keep every other key reachable when removing in any order" in prop { (seed: Long) =>
+      // Eleven keys stay below the resize threshold of a 16-slot table, so runs wrap and shift back.
+      val keys = (0L until 11L).toList
+      val map = new PushcrewStatusTracker.LongMap[String]()
+      keys.foreach(k => map.put(k, k.toString))
+      val model = mutable.HashMap[Long, String](keys.map(k => k -> k.toString): _*)
+      for (k <- new Random(seed).shuffle(keys)) {
+        map.remove(k) must_== k.toString
+        model.remove(k)
+        sameContents(map, model)
+      }
+      map.get(0L) must beNull
+    }
+
+    "return null for a missing key" in {
+      val map = new PushcrewStatusTracker.LongMap[String]()
+      map.put(1L, "one")
+      map.get(2L) must beNull
+      map.remove(2L) must beNull
+      map.size() must_== 1
+    }
+  }
+}
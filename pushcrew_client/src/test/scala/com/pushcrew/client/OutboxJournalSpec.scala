@@ -0,0 +1,126 @@
+package com.pushcrew.client
+
+import java.io.{File, RandomAccessFile}
+
+import scala.collection.JavaConverters._
+
+import org.specs2.mutable.Specification
+
+class OutboxJournalSpec extends Specification {
+
+  def freshFile(): File = {
+    val file = File.createTempFile("outbox", ".journal")
+    file.delete()
+    file.deleteOnExit()
+    file
+  }
+
+  def withJournal[T](file: File, compactAfterBytes: Long = Long.MaxValue)(f: OutboxJournal => T): T = {
+    val journal = new OutboxJournal(file, compactAfterBytes)
+    try f(journal) finally journal.close()
+  }
+
+  def recoveredTitles(journal: OutboxJournal): List[String] = journal.recovered().asScala.map(_.title).toList
+
+  def corrupt(file: File, at: Long): Unit = {
+    val raf = new RandomAccessFile(file, "rw")
+    try {
+      raf.seek(at)
+      val b = raf.read()
+      raf.seek(at)
+      raf.write(b ^ 0xff)
+    } finally raf.close()
+  }
+
+  "OutboxJournal" should {
+    "replay only the entries that were neither delivered nor abandoned" in {
+      val file = freshFile()
+      withJournal(file) { journal =>
+        journal.append("a", "m", "u", null)
+        journal.append("b", "m", "u", List("s1", "s2").asJava)
+        journal.append("c", "m", "u", null)
+        journal.delivered(0, 100)
+        journal.abandoned(2)
+      }
+      withJournal(file) { journal =>
+        val entry = journal.recovered().get(0)
+        recoveredTitles(journal) must_== List("b")
+        entry.sequence must_== 1L
+        entry.subscribers.asScala must_== List("s1", "s2")
+        journal.pending() must_== 1
+        journal.append("d", "m", "u", null).sequence must_== 3L
+      }
+    }
+
+    "drop a torn record at the tail" in {
+      val file = freshFile()
+      withJournal(file) { journal =>
+        journal.append("a", "m", "u", null)
+        journal.append("b", "m", "u", null)
+      }
+      val raf = new RandomAccessFile(file, "rw")
+      try raf.setLength(raf.length() - 5) finally raf.close()
+      withJournal(file) { journal => recoveredTitles(journal) must_== List("a") }
+    }
+
+    "stop at a record whose checksum does not match" in {
+      val file = freshFile()
+      val afterFirst = withJournal(file) { journal =>
+        journal.append("a", "m", "u", null)
+        val length = file.length()
+        journal.append("b", "m", "u", null)
+        journal.append("c", "m", "u", null)
+        length
+      }
+      corrupt(file, afterFirst + 12)
+      withJournal(file) { journal => recoveredTitles(journal) must_== List("a") }
+    }
+
+    "stop at a record whose length runs past the end of the file" in {
+      val file = freshFile()
+      val afterFirst = withJournal(file) { journal =>
+        journal.append("a", "m", "u", null)
+        val length = file.length()
+        journal.append("b", "m", "u", null)
+        length
+      }
+      // The third byte of the big-endian length: it stays positive but now runs past the file.
+      corrupt(file, afterFirst + 2)
+      withJournal(file) { journal => recoveredTitles(journal) must_== List("a") }
+    }
+
+    "stay bounded while an entry is never settled" in {
+      val file = freshFile()
+      withJournal(file, 1024) { journal =>
+        journal.append("stuck", "m", "u", null)
+        for (i <- 0 until 2000) {
+          journal.delivered(journal.append("t" + i, "m", "u", List("s1", "s2").asJava).sequence, i)
+          file.length() must be_<=(2048L)
+        }
+      }
+      withJournal(file, 1024) { journal =>
+        recoveredTitles(journal) must_== List("stuck")
+        journal.append("next", "m", "u", null).sequence must_== 2001L
+      }
+    }
+
+    "truncate once nothing is pending, keeping the sequence" in {
+      val file = freshFile()
+      withJournal(file, 0) { journal =>
+        journal.append("a", "m", "u", null)
+        journal.append("b", "m", "u", null)
+        journal.delivered(0, 1)
+        journal.delivered(1, 2)
+        file.length() must_== 17L // just the SEQUENCE record
+      }
+      withJournal(file, 0) { journal =>
+        recoveredTitles(journal) must beEmpty
+        journal.append("c", "m", "u", null).sequence must_== 2L
+      }
+      withJournal(file, 0) { journal =>
+        recoveredTitles(journal) must_== List("c")
+        journal.append("d", "m", "u", null).sequence must_== 3L
+      }
+    }
+  }
+}
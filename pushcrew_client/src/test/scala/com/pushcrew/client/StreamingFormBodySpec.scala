@@ -0,0 +1,69 @@
+package com.pushcrew.client
+
+import java.net.URLEncoder
+import java.util.Collections
+
+import scala.collection.JavaConverters._
+
+import okio.Buffer
+import org.scalacheck.{Arbitrary, Gen}
+import org.specs2.ScalaCheck
+import org.specs2.mutable.Specification
+
+class StreamingFormBodySpec extends Specification with ScalaCheck {
+
+  // Biased towards the characters the encoder treats specially: JSON escapes, every UTF-8 length and surrogates.
+  val piece: Gen[String] = Gen.frequency(
+    (4, Gen.alphaNumChar.map(_.toString)),
+    (2, Gen.choose(0, 0x7f).map(_.toChar.toString)),
+    (2, Gen.choose(0x80, 0x7ff).map(_.toChar.toString)),
+    (2, Gen.choose(0x800, 0xffff).map(_.toChar.toString)),
+    (2, Gen.choose(0x10000, 0x10ffff).map(c => new String(Character.toChars(c)))),
+    (2, Gen.oneOf("\"", "\\", "\n", "\t", "\r", "\b", "\f", "\u0001", "\u001f", "/", " ", "&", "=", "+", "%", ".-*_"))
+  )
+  val text: Gen[String] = Gen.listOf(piece).map(_.mkString)
+  implicit val arbText: Arbitrary[String] = Arbitrary(text)
+
+  /* The body as it was built before StreamingFormBody: Jackson for the list, then URLEncoder. */
+  def expected(fields: Seq[(String, String)], subscribers: Seq[String]): String = {
+    val json = PushcrewResponses.MAPPER.writeValueAsString(Collections.singletonMap("subscriber_list", subscribers.asJava))
+    val pairs = fields :+ ("subscriber_list" -> json)
+    pairs.map({ case (k, v) => URLEncoder.encode(k, "UTF-8") + "=" + URLEncoder.encode(v, "UTF-8") }).mkString("&")
+  }
+
+  def written(body: StreamingFormBody): Buffer = {
+    val buffer = new Buffer()
+    body.writeTo(buffer)
+    buffer
+  }
+
+  "StreamingFormBody" should {
+    "encode exactly as URLEncoder over Jackson's JSON" in prop { (name: String, value: String, subscribers: List[String]) =>
+      val body = new StreamingFormBody().add(name, value).addSubscriberList("subscriber_list", subscribers.asJava)
+      written(body).readUtf8() must_== expected(Seq(name -> value), subscribers)
+    }
+
+    "report the length it writes" in prop { (name: String, value: String, subscribers: List[String]) =>
+      val body = new StreamingFormBody().add(name, value).addSubscriberList("subscriber_list", subscribers.asJava)
+      body.contentLength() must_== written(body).size()
+    }
+
+    "replace unpaired surrogates as URLEncoder does" in {
+      val value = new String(Array[Char]('a', 0xd800.toChar, '"', 0xdc00.toChar, 'b'))
+      val body = new StreamingFormBody().add("k", value).addSubscriberList("subscriber_list", List(value).asJava)
+      written(body).readUtf8() must_== expected(Seq("k" -> value), Seq(value))
+    }
+
+    "encode an empty body and an empty list" in {
+      written(new StreamingFormBody()).size() must_== 0L
+      written(new StreamingFormBody().addSubscriberList("subscriber_list", Collections.emptyList[String]())).readUtf8() must_== expected(Seq(), Seq())
+    }
+
+    "not see changes made to the list after it was added" in {
+      val subscribers = new java.util.ArrayList[String](List("a", "b").asJava)
+      val body = new StreamingFormBody().addSubscriberList("subscriber_list", subscribers)
+      subscribers.set(0, "changed")
+      written(body).readUtf8() must_== expected(Seq(), Seq("a", "b"))
+    }
+  }
+}
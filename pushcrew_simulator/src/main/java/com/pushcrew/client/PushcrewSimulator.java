@@ -0,0 +1,507 @@
+package com.pushcrew.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * An in-process fake of the PushCrew REST API on localhost, so load and soak tests exercise the
+ * real client's HTTP, JSON and error handling without touching the service:
+ *
+ *   PushcrewSimulator simulator = new PushcrewSimulator("test-key").latency(40, 300, TimeUnit.MILLISECONDS).start();
+ *   PushcrewClient client = PushcrewClientFactory.builder("test-key").endpoint(simulator.endpoint()).build();
+ *
+ * Requests with any other Authorization header get a 401. A notification "delivers" to its
+ * recipients linearly over the delivery time and is clicked at the click rate, so checkstatus
+ * counts climb and then settle; send/all reaches audienceSize subscribers. A notification is
+ * forgotten once it has been settled for the retention time (a minute by default), after which
+ * checkstatus answers "Invalid Request ID", so a soak test does not grow the heap. Segments are
+ * kept in memory, and generated segments produce their members while they are listed, so a
+ * segment of millions costs nothing until somebody reads it. Settings may be changed while running.
+ */
+public class PushcrewSimulator implements Closeable {
+
+    /* Failures that can be injected at random into any call, before it is handled. */
+    public enum Fault {
+        UNAUTHORIZED(401), TOO_MANY_REQUESTS(429), SERVER_ERROR(500), BAD_GATEWAY(502), SERVICE_UNAVAILABLE(503);
+
+        final int code;
+
+        Fault(int c) {
+            code = c;
+        }
+    }
+
+    private static class Notification {
+        final long recipients;
+        final long sentAtNanos = System.nanoTime();
+
+        Notification(long r) {
+            recipients = r;
+        }
+    }
+
+    private static class SimulatedSegment {
+        final long id;
+        final String name;
+        final long generated; // members sim-<id>-<n> for n below this
+        final Set<String> added = new LinkedHashSet<String>();
+
+        SimulatedSegment(long i, String n, long g) {
+            id = i;
+            name = n;
+            generated = g;
+        }
+    }
+
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final ObjectMapper MAPPER = new ObjectMapper(JSON);
+    private static final String PREFIX = "/api/v1/";
+
+    private final String apiKey;
+    private final AtomicLong nextRequestId = new AtomicLong(1000);
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final ConcurrentSkipListMap<Long,Notification> notifications = new ConcurrentSkipListMap<Long,Notification>(); // oldest first
+    private final Map<Long,SimulatedSegment> segments = new LinkedHashMap<Long,SimulatedSegment>(); // guarded by this
+    private long nextSegmentId = 1; // guarded by this
+    private final Map<Fault,Double> faults = new ConcurrentHashMap<Fault,Double>();
+
+    private volatile double latencyMu = Double.NEGATIVE_INFINITY; // log of the median in millis; no delay by default
+    private volatile double latencySigma;
+    private volatile long retryAfterSeconds = 1;
+    private volatile long audienceSize = 10000;
+    private volatile long deliveryNanos = TimeUnit.SECONDS.toNanos(10);
+    private volatile double clickRate = 0.05;
+    private volatile long retentionNanos = TimeUnit.MINUTES.toNanos(1);
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    Logger logger = LoggerFactory.getLogger("com.pushcrew.client");
+
+    public PushcrewSimulator(String apiKey) {
+        this.apiKey = apiKey;
+    }
+
+    /*
+     * Delays every response by a log-normal amount with the given median and 99th percentile,
+     * which is roughly how API latency is shaped. Equal values give a fixed delay.
+     */
+    public PushcrewSimulator latency(long median, long p99, TimeUnit unit) {
+        if (median <= 0 || p99 < median) {
+            throw new IllegalArgumentException("Need 0 < median <= p99");
+        }
+        double medianMillis = unit.toNanos(median) / 1e6;
+        double p99Millis = unit.toNanos(p99) / 1e6;
+        latencySigma = Math.log(p99Millis / medianMillis) / 2.326; // z-score of the 99th percentile
+        latencyMu = Math.log(medianMillis);
+        return this;
+    }
+
+    /* Answers the given fraction of calls with fault instead of handling them; 0 turns it off. */
+    public PushcrewSimulator fault(Fault fault, double probability) {
+        if (probability <= 0) {
+            faults.remove(fault);
+        } else {
+            faults.put(fault, probability);
+        }
+        return this;
+    }
+
+    /* The Retry-After sent with injected 429 and 503 responses. */
+    public PushcrewSimulator retryAfter(long seconds) {
+        retryAfterSeconds = seconds;
+        return this;
+    }
+
+    /* How many subscribers a send/all reaches. */
+    public PushcrewSimulator audienceSize(long subscribers) {
+        audienceSize = subscribers;
+        return this;
+    }
+
+    public PushcrewSimulator delivery(long deliveryTime, TimeUnit unit, double clickRate) {
+        this.deliveryNanos = Math.max(1, unit.toNanos(deliveryTime));
+        this.clickRate = clickRate;
+        return this;
+    }
+
+    /* How long a notification can still be checked after its delivery has finished. */
+    public PushcrewSimulator retention(long retention, TimeUnit unit) {
+        this.retentionNanos = unit.toNanos(retention);
+        return this;
+    }
+
+    /* Creates a segment whose members (sim-<id>-0, sim-<id>-1, ...) are generated as they are listed. */
+    public synchronized long generateSegment(String name, long members) {
+        long id = nextSegmentId++;
+        segments.put(id, new SimulatedSegment(id, name, members));
+        return id;
+    }
+
+    /* Calls received so far, including rejected ones. */
+    public int requestCount() {
+        return requestCount.get();
+    }
+
+    public PushcrewSimulator start() throws IOException {
+        // Without TCP_NODELAY every exchange stalls ~40ms on delayed ACKs. The JDK server reads this
+        // once, so it only helps if no HttpServer was started in this JVM before.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        final AtomicInteger threads = new AtomicInteger();
+        // One thread per concurrent call, so simulated latency never queues requests behind each other.
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "pushcrew-simulator-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        server.setExecutor(executor);
+        server.createContext(PREFIX, new HttpHandler() {
+                public void handle(HttpExchange exchange) throws IOException {
+                    try {
+                        serve(exchange);
+                    } catch (IOException | RuntimeException e) {
+                        logger.warn("Simulator failed to answer " + exchange.getRequestURI(), e);
+                    } finally {
+                        exchange.close();
+                    }
+                }
+            });
+        server.start();
+        logger.info("PushCrew simulator listening on {}", endpoint());
+        return this;
+    }
+
+    public String endpoint() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + PREFIX;
+    }
+
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        delay();
+        if (!apiKey.equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+            failure(exchange, 401, "Unauthorized");
+            return;
+        }
+        for (Map.Entry<Fault,Double> fault : faults.entrySet()) {
+            if (ThreadLocalRandom.current().nextDouble() < fault.getValue()) {
+                int code = fault.getKey().code;
+                if (code == 429 || code == 503) {
+                    exchange.getResponseHeaders().set("Retry-After", Long.toString(retryAfterSeconds));
+                }
+                failure(exchange, code, "Simulated " + fault.getKey());
+                return;
+            }
+        }
+
+        String method = exchange.getRequestMethod();
+        String[] path = exchange.getRequestURI().getPath().substring(PREFIX.length()).split("/");
+        if (method.equals("POST") && path.length == 2 && path[0].equals("send") && path[1].equals("all")) {
+            send(exchange, audienceSize);
+        } else if (method.equals("POST") && path.length == 2 && path[0].equals("send") && path[1].equals("list")) {
+            List<String> subscribers = subscriberList(readForm(exchange));
+            if (subscribers == null) {
+                failure(exchange, 200, "Invalid subscriber IDs present in list.");
+            } else {
+                send(exchange, subscribers.size());
+            }
+        } else if (method.equals("GET") && path.length == 2 && path[0].equals("checkstatus")) {
+            checkStatus(exchange, parseId(path[1]));
+        } else if (path[0].equals("segments")) {
+            if (method.equals("GET") && path.length == 1) {
+                listSegments(exchange);
+            } else if (method.equals("POST") && path.length == 1) {
+                addSegment(exchange, readForm(exchange).get("name"));
+            } else if (method.equals("DELETE") && path.length == 2) {
+                deleteSegment(exchange, parseId(path[1]));
+            } else if (method.equals("GET") && path.length == 3 && path[2].equals("subscribers")) {
+                listSubscribers(exchange, parseId(path[1]));
+            } else if (method.equals("POST") && path.length == 3 && path[2].equals("subscribers")) {
+                addSubscribers(exchange, parseId(path[1]), subscriberList(readForm(exchange)));
+            } else {
+                failure(exchange, 404, "Not found");
+            }
+        } else {
+            failure(exchange, 404, "Not found");
+        }
+    }
+
+    private void delay() {
+        double mu = latencyMu;
+        if (mu == Double.NEGATIVE_INFINITY) {
+            return;
+        }
+        long micros = (long)(Math.exp(mu + latencySigma * ThreadLocalRandom.current().nextGaussian()) * 1000);
+        try {
+            TimeUnit.MICROSECONDS.sleep(micros);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long parseId(String s) {
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static Map<String,String> readForm(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        InputStream in = exchange.getRequestBody();
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, n);
+        }
+        Map<String,String> form = new HashMap<String,String>();
+        for (String pair : bytes.toString("UTF-8").split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                form.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return form;
+    }
+
+    /* The IDs in a {"subscriber_list":[...]} field, or null if it is missing, empty or holds a blank ID. */
+    private static List<String> subscriberList(Map<String,String> form) {
+        String json = form.get("subscriber_list");
+        if (json == null) {
+            return null;
+        }
+        JsonNode list;
+        try {
+            list = MAPPER.readTree(json).get("subscriber_list");
+        } catch (IOException e) {
+            return null;
+        }
+        if (list == null || !list.isArray() || list.size() == 0) {
+            return null;
+        }
+        List<String> result = new ArrayList<String>(list.size());
+        for (JsonNode subscriber : list) {
+            String id = subscriber.asText("");
+            if (!subscriber.isTextual() || id.trim().isEmpty()) {
+                return null;
+            }
+            result.add(id);
+        }
+        return result;
+    }
+
+    private void send(HttpExchange exchange, long recipients) throws IOException {
+        long requestId = nextRequestId.incrementAndGet();
+        notifications.put(requestId, new Notification(recipients));
+        forgetSettled();
+        JsonGenerator json = begin(exchange);
+        json.writeStringField("status", "success");
+        json.writeNumberField("request_id", requestId);
+        end(exchange, json);
+    }
+
+    /* Request IDs only grow, so the notifications past their retention are at the head of the map. */
+    private void forgetSettled() {
+        long cutoff = System.nanoTime() - deliveryNanos - retentionNanos;
+        Map.Entry<Long,Notification> oldest;
+        while ((oldest = notifications.firstEntry()) != null && oldest.getValue().sentAtNanos - cutoff < 0) {
+            notifications.remove(oldest.getKey(), oldest.getValue());
+        }
+    }
+
+    private void checkStatus(HttpExchange exchange, long requestId) throws IOException {
+        Notification notification = notifications.get(requestId);
+        if (notification == null) {
+            failure(exchange, 200, "Invalid Request ID");
+            return;
+        }
+        double progress = Math.min(1.0, (System.nanoTime() - notification.sentAtNanos) / (double)deliveryNanos);
+        long delivered = (long)(notification.recipients * progress);
+        JsonGenerator json = begin(exchange);
+        json.writeStringField("status", "success");
+        json.writeNumberField("request_id", requestId);
+        json.writeNumberField("count_delivered", delivered);
+        json.writeNumberField("count_clicked", (long)(delivered * clickRate));
+        end(exchange, json);
+    }
+
+    private void listSegments(HttpExchange exchange) throws IOException {
+        List<SimulatedSegment> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<SimulatedSegment>(segments.values());
+        }
+        JsonGenerator json = begin(exchange);
+        json.writeStringField("status", "success");
+        json.writeArrayFieldStart("segment_list");
+        for (SimulatedSegment segment : snapshot) {
+            json.writeStartObject();
+            json.writeNumberField("id", segment.id);
+            json.writeStringField("name", segment.name);
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+        end(exchange, json);
+    }
+
+    private void addSegment(HttpExchange exchange, String name) throws IOException {
+        if (name == null || name.trim().isEmpty()) {
+            failure(exchange, 200, "Segment name is required.");
+            return;
+        }
+        long id = -1;
+        synchronized (this) {
+            boolean exists = false;
+            for (SimulatedSegment segment : segments.values()) {
+                exists |= segment.name.equals(name);
+            }
+            if (!exists) {
+                id = generateSegment(name, 0);
+            }
+        }
+        if (id < 0) {
+            failure(exchange, 200, "A segment with this name already exists.");
+            return;
+        }
+        JsonGenerator json = begin(exchange);
+        json.writeStringField("status", "success");
+        json.writeNumberField("segment_id", id);
+        end(exchange, json);
+    }
+
+    private void deleteSegment(HttpExchange exchange, long segmentId) throws IOException {
+        boolean removed;
+        synchronized (this) {
+            removed = segments.remove(segmentId) != null;
+        }
+        if (removed) {
+            success(exchange);
+        } else {
+            failure(exchange, 200, "Invalid Segment ID");
+        }
+    }
+
+    private void listSubscribers(HttpExchange exchange, long segmentId) throws IOException {
+        SimulatedSegment segment;
+        String[] added;
+        synchronized (this) {
+            segment = segments.get(segmentId);
+            added = segment == null ? null : segment.added.toArray(new String[segment.added.size()]);
+        }
+        if (segment == null) {
+            failure(exchange, 200, "Invalid Segment ID");
+            return;
+        }
+        // Streamed with chunked encoding, so generated segments are never held in memory.
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody(); JsonGenerator json = JSON.createGenerator(out)) {
+            json.writeStartObject();
+            json.writeStringField("status", "success");
+            json.writeArrayFieldStart("subscriber_list");
+            String prefix = "sim-" + segment.id + "-";
+            for (long i=0;i<segment.generated;i++) {
+                json.writeString(prefix + i);
+            }
+            for (String subscriber : added) {
+                json.writeString(subscriber);
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        }
+    }
+
+    private void addSubscribers(HttpExchange exchange, long segmentId, List<String> subscribers) throws IOException {
+        if (subscribers == null) {
+            failure(exchange, 200, "Invalid subscriber IDs present in list.");
+            return;
+        }
+        boolean found;
+        synchronized (this) {
+            SimulatedSegment segment = segments.get(segmentId);
+            found = segment != null;
+            if (found) {
+                segment.added.addAll(subscribers);
+            }
+        }
+        if (found) {
+            success(exchange);
+        } else {
+            failure(exchange, 200, "Invalid Segment ID");
+        }
+    }
+
+    private static JsonGenerator begin(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        exchange.setAttribute("body", body);
+        JsonGenerator json = JSON.createGenerator(body);
+        json.writeStartObject();
+        return json;
+    }
+
+    private static void end(HttpExchange exchange, JsonGenerator json) throws IOException {
+        end(exchange, json, 200);
+    }
+
+    private static void end(HttpExchange exchange, JsonGenerator json, int code) throws IOException {
+        json.writeEndObject();
+        json.close();
+        byte[] body = ((ByteArrayOutputStream)exchange.getAttribute("body")).toByteArray();
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void success(HttpExchange exchange) throws IOException {
+        JsonGenerator json = begin(exchange);
+        json.writeStringField("status", "success");
+        end(exchange, json);
+    }
+
+    private static void failure(HttpExchange exchange, int code, String message) throws IOException {
+        JsonGenerator json = begin(exchange);
+        json.writeStringField("status", "failure");
+        json.writeStringField("message", message);
+        end(exchange, json, code);
+    }
+}